@@ -0,0 +1,103 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Startup phase which loads and verifies the CRL of every intermediate CA and then repeats the
+ * certificate check on the iCA certificates, from PEM decoding and signature verification to the
+ * revocation lookup, to warm up the hot path. The service reports ready only after the warm-up
+ * has finished.
+ */
+public class CacheWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+    private final CertificateChecker certificateChecker;
+
+    private final int iterations;
+
+    private volatile boolean ready = false;
+
+    private Thread thread;
+
+    public CacheWarmer(CertificateChecker certificateChecker, int iterations) {
+        this.certificateChecker = certificateChecker;
+        this.iterations = iterations;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::warmUp, "cache-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        Collection<X509Certificate> iCACerts = new ArrayList<>(certificateChecker.getIntermediateCertificates());
+
+        List<X509Certificate> loaded = new ArrayList<>();
+        for (X509Certificate iCACert : iCACerts) {
+            try {
+                certificateChecker.preloadIssuer(iCACert);
+                loaded.add(iCACert);
+            } catch (CertificateStatusException e) {
+                logger.error("Preloading CRL failed for " + iCACert.getSubjectX500Principal().toString() + ": " + e.getErrorCode());
+            }
+        }
+        logger.info("Preloaded CRLs of " + loaded.size() + "/" + iCACerts.size() + " intermediate CAs in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        for (int i = 0; i < iterations && !Thread.currentThread().isInterrupted(); i++) {
+            for (X509Certificate iCACert : loaded) {
+                try {
+                    certificateChecker.preloadIssuer(iCACert);
+                } catch (CertificateStatusException e) {
+                    logger.debug("Warm-up check failed for " + iCACert.getSubjectX500Principal().toString(), e);
+                }
+            }
+        }
+        ready = true;
+        logger.info("Certificate check warm-up finished in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -23,56 +23,153 @@
 
 package fi.vm.kapa.identification.shibboleth.extauthn;
 
-import java.io.*;
-import java.math.BigInteger;
-import java.nio.file.*;
 import java.security.cert.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
-import javax.security.auth.x500.X500Principal;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntry;
 import fi.vm.kapa.identification.shibboleth.extauthn.context.AuditLoggerContext;
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
-import org.apache.commons.lang.time.DateFormatUtils;
-import org.bouncycastle.asn1.ASN1InputStream;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.DEROctetString;
-import org.cryptacular.x509.dn.NameReader;
-import org.cryptacular.x509.dn.StandardAttributeType;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateDecoder;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.ScannedCertificate;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.SignatureVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.*;
 
 @Component
+@ManagedResource(objectName = "fi.vm.kapa.identification:type=CertificateChecker", description = "CA/iCA certificates")
 public class CertificateChecker {
 
     private static final Logger logger = LoggerFactory.getLogger(CertificateChecker.class);
 
-    private final Map<X500Principal, X509Certificate> caMap = new HashMap<>();
-    private final Map<X500Principal, X509Certificate> icaMap = new HashMap<>();
+    private final CertificateDirectory caDirectory;
+    private final CertificateDirectory icaDirectory;
+
+    // CA/iCA mappings, replaced as a whole when the certificate directories change
+    private volatile IssuerCertificates issuerCertificates;
 
     private final CrlChecker crlChecker;
 
-    private final String CRL_NUMBER_OID = "2.5.29.20";
+    private final SignatureVerifier signatureVerifier;
 
-    private final String DATE_TIME_PATTERN = "yyyyMMdd'T'HHmmss'Z'";
+    // verified issuer chains by SHA-256 fingerprint of the end-entity certificate
+    private final Cache<HashCode, VerifiedIssuer> verifiedIssuerCache;
 
-    private AuditLoggerContext auditLoggerContext = null;
+    private static final long DEFAULT_VERIFIED_ISSUER_CACHE_SIZE = 10000;
+
+    private static final long DEFAULT_VERIFIED_ISSUER_CACHE_EXPIRATION = 3600000;
 
     public CertificateChecker(String icaPath,
                               String caPath,
                               CrlChecker crlChecker) {
+        this(icaPath, caPath, crlChecker, DEFAULT_VERIFIED_ISSUER_CACHE_SIZE, DEFAULT_VERIFIED_ISSUER_CACHE_EXPIRATION, new SignatureVerifier());
+    }
+
+    public CertificateChecker(String icaPath,
+                              String caPath,
+                              CrlChecker crlChecker,
+                              long verifiedIssuerCacheSize,
+                              long verifiedIssuerCacheExpiration,
+                              SignatureVerifier signatureVerifier) {
+        this.signatureVerifier = signatureVerifier;
         // initialize CA/iCA mappings
-        initializeCertificateMap(caMap, caPath);
-        initializeCertificateMap(icaMap, icaPath);
+        this.caDirectory = new CertificateDirectory(caPath);
+        this.icaDirectory = new CertificateDirectory(icaPath);
+        refreshDirectories();
+        this.issuerCertificates = new IssuerCertificates(caDirectory.getCertificates(), icaDirectory.getCertificates(), signatureVerifier);
         this.crlChecker = crlChecker;
+        this.verifiedIssuerCache = CacheBuilder.newBuilder()
+                .maximumSize(verifiedIssuerCacheSize)
+                .expireAfterWrite(verifiedIssuerCacheExpiration, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Re-reads the changed CA/iCA certificate files. The new mappings are taken into use at once
+     * for both CAs and iCAs, so a request never sees a mix of old and new mappings. Requests keep
+     * using the old mappings without locking while the new ones are built.
+     *
+     * @return true if certificate files were added, changed or removed
+     */
+    @ManagedOperation(description = "Re-reads changed CA/iCA certificate files and swaps in the new certificates")
+    public synchronized boolean reloadCertificates() {
+        if (refreshDirectories()) {
+            logger.info("CA/iCA certificates changed, reloading");
+            issuerCertificates = new IssuerCertificates(caDirectory.getCertificates(), icaDirectory.getCertificates(), signatureVerifier);
+            verifiedIssuerCache.invalidateAll();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean refreshDirectories() {
+        // CA and iCA directories are read in parallel
+        CompletableFuture<Boolean> caChanged = CompletableFuture.supplyAsync(caDirectory::refresh);
+        boolean icaChanged = icaDirectory.refresh();
+        return caChanged.join() || icaChanged;
+    }
+
+    @ManagedAttribute(description = "Number of loaded iCA certificates")
+    public int getIntermediateCertificateCount() {
+        return issuerCertificates.getIntermediateCertificates().size();
     }
 
-    public X509Certificate checkCertificateStatus(X509Certificate certificate) throws CertificateStatusException {
+    @ManagedAttribute(description = "Number of iCA certificates with a valid path to a CA certificate")
+    public int getVerifiedIntermediateCertificateCount() {
+        return issuerCertificates.getVerifiedCount();
+    }
+
+    /**
+     * Decodes a client certificate sent as PEM. Certificates which are malformed, expired or not
+     * issued by a known iCA are rejected from their DER encoding, before they are parsed.
+     */
+    public X509Certificate decodeCertificate(String pemCertificate) throws CertificateStatusException {
+        byte[] derCertificate;
+        ScannedCertificate scannedCertificate;
+        try {
+            derCertificate = CertificateDecoder.decodeDer(pemCertificate);
+            scannedCertificate = ScannedCertificate.scan(derCertificate);
+        } catch (CertificateException e) {
+            logger.warn("Client certificate is not valid: " + e.getMessage());
+            throw new CertificateStatusException("No valid X.509 certificates found in request", NO_CERT_FOUND);
+        }
+
+        if ( !scannedCertificate.isValidAt(System.currentTimeMillis()) ) {
+            logger.warn("Card certificate is expired.");
+            throw new CertificateStatusException("Card certificate is expired.", CERT_EXPIRED);
+        }
+
+        if ( !issuerCertificates.isKnownIssuer(scannedCertificate) ) {
+            logger.warn("Certificate signature is not valid, no intermediate CA found for certificate issuer");
+            throw new CertificateStatusException("Certificate signature is not valid.", UNKNOWN_ICA);
+        }
+
+        try {
+            return CertificateDecoder.generateCertificate(derCertificate);
+        } catch (CertificateException e) {
+            logger.warn("Error getting client certificate from request", e);
+            throw new CertificateStatusException("No valid X.509 certificates found in request", NO_CERT_FOUND);
+        }
+    }
+
+    public CertificateValidationResult checkCertificateStatus(X509Certificate certificate) throws CertificateStatusException {
 
         // 1) check if certificate is expired
         try {
@@ -82,125 +179,146 @@ public class CertificateChecker {
             throw new CertificateStatusException("Card certificate is expired.", CERT_EXPIRED);
         }
 
+        // fields used by the checks and the authentication are decoded once
+        ParsedCertificate parsedCertificate = new ParsedCertificate(certificate);
+
         // 2) check certificate chain
-        X509Certificate issuerCertificate = getValidIssuerCertificate(certificate);
+        X509Certificate issuerCertificate = getValidIssuerCertificate(parsedCertificate);
 
         // 3) check certificate revocation list status
+        // the grace period is logged for the same time the CRL was accepted at
+        long now = crlChecker.currentTimeMillis();
+        CrlEntry crlEntry = crlChecker.getVerifiedCrl(issuerCertificate, now);
         try {
-            crlChecker.verifyAndValidate(issuerCertificate, certificate);
-            auditLoggerContext = initializeAuditLoggerContext(certificate, crlChecker.getCrl(), false);
+            crlChecker.checkRevocation(crlEntry, certificate);
         } catch (CertificateStatusException cse) {
-            if ( cse.getErrorCode() == CertificateStatusException.ErrorCode.CERT_REVOKED ) {
-                auditLoggerContext = initializeAuditLoggerContext(certificate, crlChecker.getCrl(), true);
-            }
-            throw cse;
+            throw new CertificateStatusException(cse.getMessage(), cse.getErrorCode(),
+                    initializeAuditLoggerContext(parsedCertificate, crlEntry, now, true));
         }
 
-        return certificate;
-
+        return new CertificateValidationResult(parsedCertificate, issuerCertificate, crlEntry,
+                initializeAuditLoggerContext(parsedCertificate, crlEntry, now, false));
     }
 
-    private X509Certificate getValidIssuerCertificate(X509Certificate certificate) throws CertificateStatusException {
-
-        // Check certificate signature validity against intermediate CA
-        X509Certificate iCACert = icaMap.get(certificate.getIssuerX500Principal());
-
-        try {
-            certificate.verify(iCACert.getPublicKey());
-        } catch (Exception e) {
-            logger.warn("Certificate signature is not valid.", e);
-            throw new CertificateStatusException("Certificate signature is not valid.", UNKNOWN_ICA);
+    /**
+     * Returns the verified issuer of the certificate. A certificate seen before is looked up by its
+     * fingerprint, so the signatures of the chain are verified only once per certificate and set
+     * of CA/iCA certificates. Validity and revocation are still checked on every request.
+     */
+    private X509Certificate getValidIssuerCertificate(ParsedCertificate certificate) throws CertificateStatusException {
+
+        IssuerCertificates issuers = issuerCertificates;
+
+        HashCode fingerprint = fingerprint(certificate.getCertificate());
+        if (fingerprint != null) {
+            VerifiedIssuer verifiedIssuer = verifiedIssuerCache.getIfPresent(fingerprint);
+            // entries verified against replaced CA/iCA mappings are not used
+            if (verifiedIssuer != null && verifiedIssuer.issuers == issuers) {
+                return verifiedIssuer.iCACert;
+            }
         }
 
-        // Check intermediate CA validity against root CA
-        // Current implementation checks only two levels of certificate chain (cert -> iCA -> CA)!
-        X509Certificate CACert = caMap.get(iCACert.getIssuerX500Principal());
-
-        try {
-            iCACert.verify(CACert.getPublicKey());
-        } catch (Exception e) {
-            logger.error("Intermediate CA-certificate signature is not valid.", e);
-            throw new CertificateStatusException("Intermediate CA-certificate signature is not valid.", UNKNOWN_CA);
+        // Check certificate signature validity against intermediate CA, whose path to a root CA is
+        // validated once when the CA/iCA certificates are loaded
+        X509Certificate iCACert = issuers.getVerifiedIssuer(certificate);
+        if (fingerprint != null) {
+            verifiedIssuerCache.put(fingerprint, new VerifiedIssuer(issuers, iCACert));
         }
         return iCACert;
     }
 
-    private void initializeCertificateMap(final Map<X500Principal, X509Certificate> certMap, String certDirPath) {
+    private static HashCode fingerprint(X509Certificate certificate) {
         try {
-            Files.walk(Paths.get(certDirPath)).filter(Files::isRegularFile).forEach(filePath -> {
-                try {
-                    CertificateFactory cf = CertificateFactory.getInstance("X509");
-                    FileInputStream inputStream = new FileInputStream(filePath.toString());
-                    X509Certificate x509Certificate = (X509Certificate) cf.generateCertificate(inputStream);
-                    certMap.put(x509Certificate.getSubjectX500Principal(), x509Certificate);
-                } catch ( Exception e ) {
-                    logger.warn("Reading certificate authority certificate "+ filePath.toString() +" from file system failed", e);
-                }
-            });
-        } catch(IOException ioe) {
-            logger.error("Error reading ca/ica certificates from path " + certDirPath, ioe);
+            return Hashing.sha256().hashBytes(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            logger.warn("Encoding certificate failed, verified issuer cache not used", e);
+            return null;
         }
     }
 
-    private AuditLoggerContext initializeAuditLoggerContext(X509Certificate certificate, X509CRL crl, boolean isRevoked) {
+    private void verifyIntermediateCertificate(IssuerCertificates issuers, X509Certificate iCACert) throws CertificateStatusException {
 
-        if ( Objects.isNull(certificate) || Objects.isNull(crl) ) {
-            return null;
+        if ( !issuers.isVerified(iCACert) ) {
+            logger.error("Intermediate CA-certificate signature is not valid.");
+            throw new CertificateStatusException("Intermediate CA-certificate signature is not valid.", UNKNOWN_CA);
         }
+    }
 
-        final String serialNumber = certificate.getSerialNumber().toString(16).toUpperCase();
-        final String issuerCN = new NameReader(certificate).readIssuer().getValue(StandardAttributeType.CommonName);
-        final String crlNumber = toHex(getCRLNumber(crl));
-        final String lastUpdate = DateFormatUtils.format(crl.getThisUpdate(), DATE_TIME_PATTERN);
+    /**
+     * Statistics of the verified issuer cache. Hits are certificate checks which skipped the
+     * signature verification of the issuer chain.
+     */
+    public CacheStats getVerifiedIssuerCacheStats() { return verifiedIssuerCache.stats(); }
 
-        return new AuditLoggerContext(serialNumber, crlNumber, issuerCN, lastUpdate, isRevoked);
+    public Collection<X509Certificate> getIntermediateCertificates() {
+        return issuerCertificates.getIntermediateCertificates();
     }
 
-    private String getCRLNumber(X509CRL crl) {
-
-        final byte[] encodedCrlNumber = crl.getExtensionValue(CRL_NUMBER_OID);
-        String crlNumber = "";
+    /**
+     * Runs the issuer side of a certificate check for an intermediate CA: verifies it against its
+     * root CA and loads its CRL into the cache. Used to warm up the caches before logins arrive.
+     */
+    public CrlEntry preloadIssuer(X509Certificate iCACert) throws CertificateStatusException {
+        IssuerCertificates issuers = issuerCertificates;
+        verifyIntermediateCertificate(issuers, iCACert);
+        warmUpLoginPath(issuers, iCACert);
+        CrlEntry crlEntry = crlChecker.getVerifiedCrl(iCACert);
+        // result not needed, the lookup is run to warm up the revocation check
+        crlEntry.isRevoked(iCACert);
+        return crlEntry;
+    }
 
+    /**
+     * Runs the decoding, parsing and signature check of a login on the iCA certificate itself,
+     * which is signed by the next certificate of its verified path. End-entity certificates are
+     * not available at startup, so the verified issuer cache is not filled.
+     */
+    private void warmUpLoginPath(IssuerCertificates issuers, X509Certificate iCACert) {
         try {
-            if (encodedCrlNumber != null) {
-                ASN1Primitive derObject = toDERObject(encodedCrlNumber);
-                if (derObject instanceof DEROctetString) {
-                    DEROctetString derOctetString = (DEROctetString) derObject;
-
-                    derObject = toDERObject(derOctetString.getOctets());
-                    crlNumber = derObject.toString();
-                } else {
-                    logger.warn("CRL Number extraction failed");
-                }
-            } else {
-                logger.warn("CRL Number extension not present");
+            String pemCertificate = "-----BEGIN CERTIFICATE-----\n"
+                    + Base64.getMimeEncoder(64, new byte[] {'\n'}).encodeToString(iCACert.getEncoded())
+                    + "\n-----END CERTIFICATE-----\n";
+            byte[] derCertificate = CertificateDecoder.decodeDer(pemCertificate);
+            ScannedCertificate scannedCertificate = ScannedCertificate.scan(derCertificate);
+            scannedCertificate.isValidAt(System.currentTimeMillis());
+            issuers.isKnownIssuer(scannedCertificate);
+            X509Certificate certificate = CertificateDecoder.generateCertificate(derCertificate);
+            ParsedCertificate parsedCertificate = new ParsedCertificate(certificate);
+            parsedCertificate.getAuthorityKeyIdentifier();
+            fingerprint(certificate);
+            List<X509Certificate> path = issuers.getVerifiedPath(iCACert);
+            if (path != null && path.size() > 1) {
+                signatureVerifier.verifyCertificate(certificate, path.get(1));
             }
-        } catch (IOException iex) {
-            logger.warn("Exception while extracting CRL Number", iex);
+        } catch (CertificateException e) {
+            logger.debug("Warm-up of certificate decoding failed for " + iCACert.getSubjectX500Principal().toString(), e);
         }
-
-        return crlNumber;
     }
 
-    private ASN1Primitive toDERObject(byte[] data) throws IOException {
+    private AuditLoggerContext initializeAuditLoggerContext(ParsedCertificate certificate, CrlEntry crlEntry, long now, boolean isRevoked) {
 
-        ByteArrayInputStream inStream = new ByteArrayInputStream(data);
-        ASN1InputStream asnInputStream = new ASN1InputStream(inStream);
+        if ( Objects.isNull(certificate) || Objects.isNull(crlEntry) ) {
+            return null;
+        }
 
-        return asnInputStream.readObject();
+        // CRL fields are formatted once when the CRL is loaded
+        final String serialNumber = certificate.getSerialNumberHex();
+
+        final boolean crlInGracePeriod = crlEntry.isInGracePeriod(now);
+
+        return new AuditLoggerContext(serialNumber, crlEntry.getCrlNumberHex(), crlEntry.getIssuerCN(),
+                crlEntry.getFormattedThisUpdate(), isRevoked, crlInGracePeriod);
     }
 
-    private String toHex(String str) {
+    private static final class VerifiedIssuer {
 
-        try {
-            return String.format("%X", new BigInteger(str));
-        } catch (NumberFormatException | NullPointerException ex) {
-            logger.warn("Failed to convert crl number to hex format", ex);
-        }
+        private final IssuerCertificates issuers;
+        private final X509Certificate iCACert;
 
-        return "";
+        private VerifiedIssuer(IssuerCertificates issuers, X509Certificate iCACert) {
+            this.issuers = issuers;
+            this.iCACert = iCACert;
+        }
     }
 
-    public AuditLoggerContext getAuditLoggerContext() { return auditLoggerContext; }
-
 }
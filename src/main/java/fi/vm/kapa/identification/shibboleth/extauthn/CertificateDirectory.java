@@ -0,0 +1,149 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * CA certificates of a directory tree. Refreshing stats the tree and parses only the files
+ * which are new or whose modification time or size has changed.
+ */
+class CertificateDirectory {
+
+    private static final Logger logger = LoggerFactory.getLogger(CertificateDirectory.class);
+
+    private final Path certDir;
+
+    // guarded by this, sorted so that the certificate chosen for a duplicate subject does not depend on reload order
+    private final Map<Path, CertificateFile> files = new TreeMap<>();
+
+    CertificateDirectory(String certDirPath) {
+        this.certDir = Paths.get(certDirPath);
+    }
+
+    /**
+     * @return true if certificate files were added, changed or removed
+     */
+    synchronized boolean refresh() {
+        Map<Path, BasicFileAttributes> found = new HashMap<>();
+        try {
+            Files.walkFileTree(certDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path filePath, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        found.put(filePath, attributes);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path filePath, IOException e) {
+                    logger.warn("Reading certificate authority certificate "+ filePath.toString() +" from file system failed", e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ioe) {
+            logger.error("Error reading ca/ica certificates from path " + certDir.toString(), ioe);
+            return false;
+        }
+
+        boolean changed = files.keySet().retainAll(found.keySet());
+        List<Path> changedFiles = new ArrayList<>();
+        for (Map.Entry<Path, BasicFileAttributes> file : found.entrySet()) {
+            CertificateFile certificateFile = files.get(file.getKey());
+            if (certificateFile == null || !certificateFile.isUnchanged(file.getValue())) {
+                changedFiles.add(file.getKey());
+            }
+        }
+        // changed files are parsed in parallel, a full reload may parse hundreds of certificates
+        List<CertificateFile> parsedFiles = changedFiles.parallelStream()
+                .map(filePath -> new CertificateFile(filePath, found.get(filePath), readCertificate(filePath)))
+                .collect(Collectors.toList());
+        for (CertificateFile certificateFile : parsedFiles) {
+            files.put(certificateFile.path, certificateFile);
+        }
+        return changed || !parsedFiles.isEmpty();
+    }
+
+    /**
+     * @return all certificates in file path order, including certificates with the same subject
+     */
+    synchronized List<X509Certificate> getCertificates() {
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (CertificateFile file : files.values()) {
+            if (file.certificate != null) {
+                certificates.add(file.certificate);
+            }
+        }
+        return certificates;
+    }
+
+    private static X509Certificate readCertificate(Path filePath) {
+        try (InputStream inputStream = new FileInputStream(filePath.toFile())) {
+            CertificateFactory cf = CertificateFactory.getInstance("X509");
+            return (X509Certificate) cf.generateCertificate(inputStream);
+        } catch ( Exception e ) {
+            logger.warn("Reading certificate authority certificate "+ filePath.toString() +" from file system failed", e);
+            return null;
+        }
+    }
+
+    private static final class CertificateFile {
+
+        private final Path path;
+        private final FileTime lastModified;
+        private final long size;
+        private final X509Certificate certificate;
+
+        private CertificateFile(Path path, BasicFileAttributes attributes, X509Certificate certificate) {
+            this.path = path;
+            this.lastModified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.certificate = certificate;
+        }
+
+        private boolean isUnchanged(BasicFileAttributes attributes) {
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntry;
+import fi.vm.kapa.identification.shibboleth.extauthn.context.AuditLoggerContext;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Result of a successful certificate status check. Each check returns its own result, so the
+ * checkers themselves keep no per-request state.
+ */
+public class CertificateValidationResult {
+
+    private final ParsedCertificate parsedCertificate;
+
+    private final X509Certificate issuerCertificate;
+
+    private final CrlEntry crlEntry;
+
+    private final AuditLoggerContext auditLoggerContext;
+
+    CertificateValidationResult(ParsedCertificate parsedCertificate, X509Certificate issuerCertificate, CrlEntry crlEntry, AuditLoggerContext auditLoggerContext) {
+        this.parsedCertificate = parsedCertificate;
+        this.issuerCertificate = issuerCertificate;
+        this.crlEntry = crlEntry;
+        this.auditLoggerContext = auditLoggerContext;
+    }
+
+    public X509Certificate getCertificate() {
+        return parsedCertificate.getCertificate();
+    }
+
+    public ParsedCertificate getParsedCertificate() {
+        return parsedCertificate;
+    }
+
+    public X509Certificate getIssuerCertificate() {
+        return issuerCertificate;
+    }
+
+    /**
+     * CRL the certificate was checked against.
+     */
+    public CrlEntry getCrlEntry() {
+        return crlEntry;
+    }
+
+    /**
+     * Certificate is never revoked in a successful result, revocation is reported with
+     * {@link fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException}.
+     */
+    public boolean isRevoked() {
+        return false;
+    }
+
+    public AuditLoggerContext getAuditLoggerContext() {
+        return auditLoggerContext;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.ScannedCertificate;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.SignatureVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.UNKNOWN_CA;
+import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.UNKNOWN_ICA;
+
+/**
+ * CA/iCA certificates and the validated paths from each iCA to a root CA. Paths may have any
+ * number of intermediate levels, and they are built and their signatures verified once when the
+ * certificates are loaded, so a certificate check verifies only the signature of the certificate
+ * itself. Issuers are looked up by authority key identifier, or by issuer DN if the certificate
+ * has no authority key identifier or no certificate matches it.
+ */
+final class IssuerCertificates {
+
+    private static final Logger logger = LoggerFactory.getLogger(IssuerCertificates.class);
+
+    // maximum number of iCA levels between a certificate and its root CA
+    static final int MAX_INTERMEDIATE_LEVELS = 8;
+
+    private final SignatureVerifier signatureVerifier;
+
+    private final CertificateIndex caIndex;
+    private final CertificateIndex icaIndex;
+    private final List<X509Certificate> intermediateCertificates;
+
+    // encoded subjects of the iCAs, compared with the issuer of a certificate before it is parsed
+    private final Set<ByteBuffer> encodedIntermediateSubjects;
+
+    // validated path of each iCA, from the iCA itself up to and including the root CA
+    private final Map<X509Certificate, List<X509Certificate>> verifiedPaths;
+
+    IssuerCertificates(List<X509Certificate> caCertificates, List<X509Certificate> icaCertificates, SignatureVerifier signatureVerifier) {
+        this.signatureVerifier = signatureVerifier;
+        this.caIndex = new CertificateIndex(caCertificates);
+        this.icaIndex = new CertificateIndex(icaCertificates);
+        this.intermediateCertificates = Collections.unmodifiableList(new ArrayList<>(icaCertificates));
+        this.encodedIntermediateSubjects = new HashSet<>();
+        for (X509Certificate iCACert : icaCertificates) {
+            encodedIntermediateSubjects.add(ByteBuffer.wrap(iCACert.getSubjectX500Principal().getEncoded()));
+        }
+        this.verifiedPaths = buildPaths();
+    }
+
+    List<X509Certificate> getIntermediateCertificates() {
+        return intermediateCertificates;
+    }
+
+    /**
+     * @return validated path from the iCA to its root CA, or null if the iCA has no valid path
+     */
+    List<X509Certificate> getVerifiedPath(X509Certificate iCACert) {
+        return verifiedPaths.get(iCACert);
+    }
+
+    int getVerifiedCount() {
+        return verifiedPaths.size();
+    }
+
+    boolean isVerified(X509Certificate iCACert) {
+        return verifiedPaths.containsKey(iCACert);
+    }
+
+    /**
+     * True if an iCA has the issuer of the certificate as its subject.
+     */
+    boolean isKnownIssuer(ScannedCertificate certificate) {
+        if (encodedIntermediateSubjects.contains(certificate.getIssuer())) {
+            return true;
+        }
+        // the same name may be encoded with other string types
+        try {
+            return icaIndex.hasSubject(new X500Principal(certificate.getIssuerEncoded()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the iCA which has signed the certificate and has a validated path to a root CA.
+     *
+     * @throws CertificateStatusException UNKNOWN_ICA if no iCA has signed the certificate, or
+     * UNKNOWN_CA if the signing iCA has no valid path to a root CA
+     */
+    X509Certificate getVerifiedIssuer(ParsedCertificate parsedCertificate) throws CertificateStatusException {
+        X509Certificate certificate = parsedCertificate.getCertificate();
+        List<X509Certificate> candidates = icaIndex.getIssuerCandidates(certificate, parsedCertificate.getAuthorityKeyIdentifier());
+        X509Certificate unverifiedIssuer = null;
+        for (X509Certificate candidate : candidates) {
+            if (isVerified(candidate) && isSignedBy(certificate, candidate)) {
+                return candidate;
+            }
+        }
+        for (X509Certificate candidate : candidates) {
+            if (!isVerified(candidate) && isSignedBy(certificate, candidate)) {
+                unverifiedIssuer = candidate;
+                break;
+            }
+        }
+        if (unverifiedIssuer == null) {
+            logger.warn("Certificate signature is not valid, no matching intermediate CA found for " + certificate.getIssuerX500Principal().toString());
+            throw new CertificateStatusException("Certificate signature is not valid.", UNKNOWN_ICA);
+        }
+        logger.error("Intermediate CA-certificate " + unverifiedIssuer.getSubjectX500Principal().toString() + " has no valid path to a CA-certificate.");
+        throw new CertificateStatusException("Intermediate CA-certificate signature is not valid.", UNKNOWN_CA);
+    }
+
+    private Map<X509Certificate, List<X509Certificate>> buildPaths() {
+        // the certificates are looked up from the same lists, so identity is enough
+        Map<X509Certificate, List<X509Certificate>> paths = new IdentityHashMap<>();
+        for (X509Certificate iCACert : intermediateCertificates) {
+            List<X509Certificate> path = buildPath(iCACert, paths, Collections.newSetFromMap(new IdentityHashMap<>()));
+            if (path == null) {
+                logger.error("No valid path to a CA-certificate found for intermediate CA " + iCACert.getSubjectX500Principal().toString());
+            }
+        }
+        logger.info("Verified " + paths.size() + "/" + intermediateCertificates.size() + " intermediate CA-certificates against CA-certificates");
+        return paths;
+    }
+
+    /**
+     * Builds the path of an iCA depth first. Paths found are stored and reused by the iCAs below
+     * them, so each signature of a path is verified only once.
+     */
+    private List<X509Certificate> buildPath(X509Certificate cert,
+                                            Map<X509Certificate, List<X509Certificate>> paths,
+                                            Set<X509Certificate> pathSoFar) {
+        List<X509Certificate> path = paths.get(cert);
+        if (path != null) {
+            return path;
+        }
+        String authorityKeyIdentifier = CertificateUtil.getAuthorityKeyIdentifier(cert);
+        for (X509Certificate caCert : caIndex.getIssuerCandidates(cert, authorityKeyIdentifier)) {
+            if (isSignedBy(cert, caCert)) {
+                path = Collections.unmodifiableList(Arrays.asList(cert, caCert));
+                paths.put(cert, path);
+                return path;
+            }
+        }
+        if (pathSoFar.size() >= MAX_INTERMEDIATE_LEVELS) {
+            logger.warn("Maximum path length exceeded at intermediate CA " + cert.getSubjectX500Principal().toString());
+            return null;
+        }
+        pathSoFar.add(cert);
+        try {
+            for (X509Certificate iCACert : icaIndex.getIssuerCandidates(cert, authorityKeyIdentifier)) {
+                // skips self-signed and cyclic paths
+                if (pathSoFar.contains(iCACert) || !isSignedBy(cert, iCACert)) {
+                    continue;
+                }
+                List<X509Certificate> issuerPath = buildPath(iCACert, paths, pathSoFar);
+                if (issuerPath != null) {
+                    path = new ArrayList<>(issuerPath.size() + 1);
+                    path.add(cert);
+                    path.addAll(issuerPath);
+                    path = Collections.unmodifiableList(path);
+                    paths.put(cert, path);
+                    return path;
+                }
+            }
+        } finally {
+            pathSoFar.remove(cert);
+        }
+        return null;
+    }
+
+    private boolean isSignedBy(X509Certificate cert, X509Certificate issuerCert) {
+        return signatureVerifier.verifyCertificate(cert, issuerCert);
+    }
+
+    /**
+     * Certificates by subject key identifier and by subject DN.
+     */
+    private static final class CertificateIndex {
+
+        private final Map<String, List<X509Certificate>> byKeyIdentifier = new HashMap<>();
+        private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+
+        private CertificateIndex(List<X509Certificate> certificates) {
+            for (X509Certificate cert : certificates) {
+                String keyIdentifier = CertificateUtil.getSubjectKeyIdentifier(cert);
+                if (keyIdentifier != null) {
+                    byKeyIdentifier.computeIfAbsent(keyIdentifier, k -> new ArrayList<>(1)).add(cert);
+                }
+                bySubject.computeIfAbsent(cert.getSubjectX500Principal(), k -> new ArrayList<>(1)).add(cert);
+            }
+        }
+
+        private boolean hasSubject(X500Principal subject) {
+            return bySubject.containsKey(subject);
+        }
+
+        /**
+         * @return certificates matching the authority key identifier of the certificate, or the
+         * certificates with its issuer DN if it has no authority key identifier or none match
+         */
+        private List<X509Certificate> getIssuerCandidates(X509Certificate cert, String keyIdentifier) {
+            if (keyIdentifier != null) {
+                List<X509Certificate> candidates = byKeyIdentifier.get(keyIdentifier);
+                if (candidates != null) {
+                    return candidates;
+                }
+            }
+            return bySubject.getOrDefault(cert.getIssuerX500Principal(), Collections.emptyList());
+        }
+    }
+}
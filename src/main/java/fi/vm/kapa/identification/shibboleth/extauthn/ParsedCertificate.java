@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
+import org.cryptacular.x509.dn.NameReader;
+import org.cryptacular.x509.dn.StandardAttributeType;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * End-entity certificate with the fields used during an authentication decoded once, so that
+ * the checker, the authentication handlers and the context creation don't parse the names of
+ * the certificate again. Key identifiers are needed only when the issuer is not cached, so they
+ * are decoded on first use. An instance is used by the thread handling one request.
+ */
+public class ParsedCertificate {
+
+    private final X509Certificate certificate;
+
+    private final String subjectSerialNumber;
+
+    private final String issuerCN;
+
+    private final String serialNumber;
+
+    private final String serialNumberHex;
+
+    private boolean keyIdentifiersRead;
+
+    private String subjectKeyIdentifier;
+
+    private String authorityKeyIdentifier;
+
+    public ParsedCertificate(X509Certificate certificate) {
+        NameReader nameReader = new NameReader(certificate);
+        this.certificate = certificate;
+        this.subjectSerialNumber = nameReader.readSubject().getValue(StandardAttributeType.SerialNumber);
+        this.issuerCN = nameReader.readIssuer().getValue(StandardAttributeType.CommonName);
+        this.serialNumber = certificate.getSerialNumber().toString();
+        this.serialNumberHex = certificate.getSerialNumber().toString(16).toUpperCase();
+    }
+
+    private void readKeyIdentifiers() {
+        if (!keyIdentifiersRead) {
+            subjectKeyIdentifier = CertificateUtil.getSubjectKeyIdentifier(certificate);
+            authorityKeyIdentifier = CertificateUtil.getAuthorityKeyIdentifier(certificate);
+            keyIdentifiersRead = true;
+        }
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * serialNumber attribute of the subject DN, null if there is none.
+     */
+    public String getSubjectSerialNumber() {
+        return subjectSerialNumber;
+    }
+
+    public String getIssuerCN() {
+        return issuerCN;
+    }
+
+    /**
+     * Certificate serial number in decimal.
+     */
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    /**
+     * Certificate serial number in upper case hex.
+     */
+    public String getSerialNumberHex() {
+        return serialNumberHex;
+    }
+
+    public String getSubjectKeyIdentifier() {
+        readKeyIdentifiers();
+        return subjectKeyIdentifier;
+    }
+
+    public String getAuthorityKeyIdentifier() {
+        readKeyIdentifiers();
+        return authorityKeyIdentifier;
+    }
+}
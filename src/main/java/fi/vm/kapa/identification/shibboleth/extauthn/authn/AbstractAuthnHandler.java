@@ -24,6 +24,8 @@
 package fi.vm.kapa.identification.shibboleth.extauthn.authn;
 
 import fi.vm.kapa.identification.shibboleth.extauthn.CertificateChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.CertificateValidationResult;
+import fi.vm.kapa.identification.shibboleth.extauthn.ParsedCertificate;
 import fi.vm.kapa.identification.shibboleth.extauthn.context.AuditLoggerContext;
 import fi.vm.kapa.identification.shibboleth.extauthn.context.HSTCardContext;
 import fi.vm.kapa.identification.shibboleth.extauthn.context.OrganizationCardContext;
@@ -33,9 +35,6 @@ import fi.vm.kapa.identification.shibboleth.extauthn.vartti.VarttiClient;
 import net.shibboleth.idp.authn.ExternalAuthentication;
 import net.shibboleth.idp.authn.ExternalAuthenticationException;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
-import org.cryptacular.x509.dn.NameReader;
-import org.cryptacular.x509.dn.RDNSequence;
-import org.cryptacular.x509.dn.StandardAttributeType;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.Extensions;
@@ -81,6 +80,14 @@ public abstract class AbstractAuthnHandler {
 
     abstract X509Certificate getUserCertificate(HttpServletRequest httpRequest) throws CertificateStatusException;
 
+    /**
+     * Decodes the client certificate of the request, rejecting malformed, expired and unknown
+     * certificates before they are parsed.
+     */
+    protected X509Certificate decodeCertificate(String pemCertificate) throws CertificateStatusException {
+        return certificateChecker.decodeCertificate(pemCertificate);
+    }
+
     public void initialize(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
             throws ServletException, IOException {
         try {
@@ -89,15 +96,16 @@ public abstract class AbstractAuthnHandler {
             debugHttpRequest(httpRequest);
 
             try {
-                final X509Certificate cert = certificateChecker.checkCertificateStatus(getUserCertificate(httpRequest));
+                final CertificateValidationResult validationResult = certificateChecker.checkCertificateStatus(getUserCertificate(httpRequest));
+                final ParsedCertificate cert = validationResult.getParsedCertificate();
 
+                // the principals are formatted only if debug logging is enabled
                 log.debug("End-entity X.509 certificate found with subject '{}', issued by '{}'",
-                        cert.getSubjectDN().getName(), cert.getIssuerDN().getName());
+                        cert.getCertificate().getSubjectX500Principal(), cert.getCertificate().getIssuerX500Principal());
 
-                final RDNSequence dn = new NameReader(cert).readSubject();
-                final String subjectSerialNumber = dn.getValue(StandardAttributeType.SerialNumber);
+                final String subjectSerialNumber = cert.getSubjectSerialNumber();
 
-                setAuditLoggerSubContext(httpRequest, key, certificateChecker.getAuditLoggerContext());
+                setAuditLoggerSubContext(httpRequest, key, validationResult.getAuditLoggerContext());
 
                 // set sub context and finish external authentication
                 setIDCardSubContext(httpRequest, key, cert, subjectSerialNumber);
@@ -106,8 +114,8 @@ public abstract class AbstractAuthnHandler {
             } catch ( CertificateStatusException ste ) {
                 if ( ste.getErrorCode() == CertificateStatusException.ErrorCode.CERT_REVOKED ) {
                     try {
-                        setAuditLoggerSubContext(httpRequest, key, certificateChecker.getAuditLoggerContext());
-                        logRevokedCertificateInCRL(certificateChecker.getAuditLoggerContext());
+                        setAuditLoggerSubContext(httpRequest, key, ste.getAuditLoggerContext());
+                        logRevokedCertificateInCRL(ste.getAuditLoggerContext());
                     } catch (CertificateStatusException cse) {
                         log.warn("Audit logger sub context not valid", cse);
                     }
@@ -124,7 +132,7 @@ public abstract class AbstractAuthnHandler {
         return hstPromptUrl + "?conversation=" + key + "&e=" + errorID.getCode();
     }
 
-    private void setIDCardSubContext(HttpServletRequest httpRequest, String key, X509Certificate cert, String subjectSerialNumber) throws IOException, ExternalAuthenticationException, CertificateStatusException {
+    private void setIDCardSubContext(HttpServletRequest httpRequest, String key, ParsedCertificate cert, String subjectSerialNumber) throws IOException, ExternalAuthenticationException, CertificateStatusException {
 
         AuthenticationContext ac = ExternalAuthentication.getProfileRequestContext(key, httpRequest).getSubcontext(AuthenticationContext.class);
         if ( ac == null ) {
@@ -132,12 +140,12 @@ public abstract class AbstractAuthnHandler {
             throw new CertificateStatusException("Authentication context not valid", INTERNAL_ERROR);
         }
 
-        final String issuerCommonName = new NameReader(cert).readIssuer().getValue(StandardAttributeType.CommonName);
+        final String issuerCommonName = cert.getIssuerCN();
 
         if ( isOrganizationCardType(issuerCommonName) ) {
             // get hetu from vartti
             try {
-                OrganizationCardContext occ = new OrganizationCardContext(varttiClient.getHetu(subjectSerialNumber, issuerCommonName, String.valueOf(cert.getSerialNumber())));
+                OrganizationCardContext occ = new OrganizationCardContext(varttiClient.getHetu(subjectSerialNumber, issuerCommonName, cert.getSerialNumber()));
                 ac.addSubcontext(occ);
             } catch (VarttiServiceException vse) {
                 log.warn("Getting hetu from vartti client failed", vse);
@@ -24,7 +24,6 @@
 package fi.vm.kapa.identification.shibboleth.extauthn.authn;
 
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
-import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -47,11 +46,9 @@ public class ApacheAuthnHandler extends AbstractAuthnHandler {
     @Override
     public X509Certificate getUserCertificate(HttpServletRequest httpRequest) throws CertificateStatusException
     {
-        X509Certificate certificate = CertificateUtil.getCertificate(httpRequest.getHeader("SSL_CLIENT_CERT"));
-
-        if (certificate == null || !"SUCCESS".equalsIgnoreCase(httpRequest.getHeader("SSL_CLIENT_VERIFY"))) {
+        if (!"SUCCESS".equalsIgnoreCase(httpRequest.getHeader("SSL_CLIENT_VERIFY"))) {
             throw new CertificateStatusException("No valid X.509 certificates found in request", NO_CERT_FOUND);
         }
-        return certificate;
+        return decodeCertificate(httpRequest.getHeader("SSL_CLIENT_CERT"));
     }
 }
@@ -24,7 +24,7 @@
 package fi.vm.kapa.identification.shibboleth.extauthn.authn;
 
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
-import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.SignatureVerifier;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -34,12 +34,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.security.cert.X509Certificate;
 
-import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.NO_CERT_FOUND;
 import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.SCS_SIGNATURE_FAILED;
 
 @Component
 public class SCSAuthnHandler extends AbstractAuthnHandler {
 
+    @Autowired
+    private SignatureVerifier signatureVerifier;
+
     @Autowired
     public SCSAuthnHandler(@Value("${oc.ca.orgname.set}") String organizationCardCA,
                            @Value("${hst.ca.orgname.set}") String hstCardCA)
@@ -50,10 +52,7 @@ public class SCSAuthnHandler extends AbstractAuthnHandler {
     @Override
     public X509Certificate getUserCertificate(HttpServletRequest httpRequest) throws CertificateStatusException
     {
-        X509Certificate certificate = CertificateUtil.getCertificate(httpRequest.getParameter("scs_cert"));
-        if (certificate == null) {
-            throw new CertificateStatusException("No valid X.509 certificates found in request", NO_CERT_FOUND);
-        }
+        X509Certificate certificate = decodeCertificate(httpRequest.getParameter("scs_cert"));
 
         // Check signature (original data in HTTP session)
         HttpSession session = httpRequest.getSession();
@@ -65,7 +64,7 @@ public class SCSAuthnHandler extends AbstractAuthnHandler {
             throw new CertificateStatusException("SCS signature or data missing", SCS_SIGNATURE_FAILED);
         }
 
-        boolean signatureValid = CertificateUtil.checkSignature(data, signature, certificate);
+        boolean signatureValid = signatureVerifier.checkSignature(data, signature, certificate);
         if (!signatureValid) {
             throw new CertificateStatusException("SCS signature validity check failed", SCS_SIGNATURE_FAILED);
         }
@@ -23,40 +23,127 @@
 package fi.vm.kapa.identification.shibboleth.extauthn.cache;
 
 import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.security.cert.X509CRL;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
 import java.time.Clock;
+import java.util.Date;
 import javax.security.auth.x500.X500Principal;
 
-public class CrlCacheLoader extends CacheLoader<X500Principal, X509CRL> {
+public class CrlCacheLoader extends CacheLoader<X509Certificate, CrlEntry> {
 
     private static final Logger logger = LoggerFactory.getLogger(CrlCacheLoader.class);
 
-    private final String crlPath;
+    private final CrlDirectoryIndex crlIndex;
     private final String crlUpdateTimeValidation;
     private final Clock clock;
+    // null if entries are expired by the cache only
+    private final CrlExpiryPolicy expiryPolicy;
+    // time in milliseconds a CRL is still used after its nextUpdate if no newer CRL is available
+    private final long gracePeriod;
 
-    CrlCacheLoader(String crlPath, String crlUpdateTimeValidation, Clock clock) {
-        this.crlPath = crlPath;
+    CrlCacheLoader(CrlDirectoryIndex crlIndex, String crlUpdateTimeValidation, Clock clock, CrlExpiryPolicy expiryPolicy, long gracePeriod) {
+        this.crlIndex = crlIndex;
         this.crlUpdateTimeValidation = crlUpdateTimeValidation;
         this.clock = clock;
+        this.expiryPolicy = expiryPolicy;
+        this.gracePeriod = gracePeriod;
+    }
+
+    CrlCacheLoader(CrlDirectoryIndex crlIndex, String crlUpdateTimeValidation, Clock clock) {
+        this(crlIndex, crlUpdateTimeValidation, clock, null, 0);
+    }
+
+    CrlCacheLoader(String crlPath, String crlUpdateTimeValidation, Clock clock) {
+        this(new CrlDirectoryIndex(crlPath), crlUpdateTimeValidation, clock);
     }
 
     public CrlCacheLoader(String crlPath, String crlUpdateTimeValidation) {
         this(crlPath, crlUpdateTimeValidation, Clock.systemUTC());
     }
 
+    public CrlCacheLoader(CrlDirectoryIndex crlIndex, String crlUpdateTimeValidation, CrlExpiryPolicy expiryPolicy, long gracePeriod) {
+        this(crlIndex, crlUpdateTimeValidation, Clock.systemUTC(), expiryPolicy, gracePeriod);
+    }
+
     @Override
-    public X509CRL load(@Nonnull X500Principal principal) throws Exception {
+    public CrlEntry load(@Nonnull X509Certificate issuerCertificate) throws Exception {
+        X500Principal principal = issuerCertificate.getSubjectX500Principal();
         logger.debug("CRL not in cache or cache is expired, reloading for principal " + principal.toString());
-        // find crl recursively and return first found
-        CrlFileVisitor visitor = new CrlFileVisitor(principal, crlUpdateTimeValidation, clock);
-        Files.walkFileTree(Paths.get(crlPath), visitor);
-        return visitor.getCRL();
+        CrlFileInfo crlFile = findCrlFile(principal);
+        if (crlFile == null) {
+            return null;
+        }
+        return readCrlEntry(crlFile, issuerCertificate);
+    }
+
+    /**
+     * Refreshes a cached CRL in the background. The current entry is kept if the CRL file has not
+     * changed or if the new CRL cannot be read or its signature is not valid; its expiry time is
+     * then recalculated so that the next attempt waits for the expiry policy. If no usable CRL file
+     * is left, the refresh fails and the current entry is served until it expires.
+     */
+    @Override
+    public ListenableFuture<CrlEntry> reload(@Nonnull X509Certificate issuerCertificate, @Nonnull CrlEntry oldEntry) throws Exception {
+        X500Principal principal = issuerCertificate.getSubjectX500Principal();
+        CrlFileInfo crlFile = findCrlFile(principal);
+        if (crlFile == null) {
+            throw new CRLException("CRL refresh failed, no valid CRL found for principal " + principal.toString());
+        }
+        if (crlFile == oldEntry.getSource()) {
+            return Futures.immediateFuture(keep(oldEntry));
+        }
+        logger.debug("CRL changed, reloading for principal " + principal.toString());
+        CrlEntry crlEntry = readCrlEntry(crlFile, issuerCertificate);
+        if (crlEntry == null || !crlEntry.isSignatureValid()) {
+            logger.error("CRL refresh failed, CRL " + crlFile.getPath().toString() + " is not valid");
+            return Futures.immediateFuture(keep(oldEntry));
+        }
+        return Futures.immediateFuture(crlEntry);
+    }
+
+    private CrlEntry keep(CrlEntry oldEntry) {
+        if (expiryPolicy == null) {
+            return oldEntry;
+        }
+        return oldEntry.withExpiryTime(expiryPolicy.getExpiryTime(oldEntry.getIssuer(), oldEntry.getThisUpdate(), oldEntry.getNextUpdate(), clock.millis()));
+    }
+
+    private boolean isUpdateTimeValidated() {
+        // valid but expired CRLs are used if up to date not found, for testing purposes only!
+        return !"0".equals(crlUpdateTimeValidation);
+    }
+
+    private CrlFileInfo findCrlFile(X500Principal principal) {
+        return crlIndex.findCrlFile(principal, new Date(clock.millis()), isUpdateTimeValidated() ? gracePeriod : Long.MAX_VALUE);
+    }
+
+    private CrlEntry readCrlEntry(CrlFileInfo crlFile, X509Certificate issuerCertificate) throws Exception {
+        X500Principal principal = issuerCertificate.getSubjectX500Principal();
+        try {
+            MappedCrl crl = MappedCrl.open(crlFile.getPath());
+            if (!crl.getIssuer().equals(principal)) {
+                logger.warn("CRL " + crlFile.getPath().toString() + " changed after indexing, issuer no longer matches");
+                return null;
+            }
+            long expiryTime = expiryPolicy == null ? Long.MAX_VALUE
+                    : expiryPolicy.getExpiryTime(principal, crl.getThisUpdate(), crl.getNextUpdate(), clock.millis());
+            long usableUntil = isUpdateTimeValidated() && crl.getNextUpdate() != null
+                    ? crl.getNextUpdate().getTime() + gracePeriod : Long.MAX_VALUE;
+            //Check CRL signature validity against intermediate CA
+            if (!crl.verify(issuerCertificate.getPublicKey())) {
+                logger.error("CRL signature is not valid");
+                return new CrlEntry(crl, RevokedSerialIndex.builder().build(), false, crlFile, expiryTime, usableUntil);
+            }
+            return new CrlEntry(crl, crl.readRevokedSerials(), true, crlFile, expiryTime, usableUntil);
+        } catch (InternalError e) {
+            // thrown if the mapped file is truncated while it is being read
+            throw new CRLException("Reading CRL " + crlFile.getPath().toString() + " failed", e);
+        }
     }
 }
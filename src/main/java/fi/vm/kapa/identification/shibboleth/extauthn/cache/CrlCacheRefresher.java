@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background executor which refreshes all cached CRLs periodically. Refreshed entries are
+ * swapped into the cache only after they have been read and verified, so requests keep
+ * using the current CRL while a refresh is in progress.
+ */
+public class CrlCacheRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrlCacheRefresher.class);
+
+    private final ScheduledExecutorService executor;
+
+    public CrlCacheRefresher(int threads) {
+        this.executor = Executors.newScheduledThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("crl-refresh-%d")
+                .build());
+    }
+
+    /**
+     * Executor for the reloads, to be used with {@link com.google.common.cache.CacheLoader#asyncReloading}.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void start(LoadingCache<?, ?> cache, long refreshTime) {
+        executor.scheduleWithFixedDelay(() -> refreshAll(cache), refreshTime, refreshTime, TimeUnit.MILLISECONDS);
+    }
+
+    private static <K> void refreshAll(LoadingCache<K, ?> cache) {
+        try {
+            for (K key : cache.asMap().keySet()) {
+                cache.refresh(key);
+            }
+        } catch (Exception e) {
+            logger.error("Refreshing CRL cache failed", e);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -22,69 +22,176 @@
  */
 package fi.vm.kapa.identification.shibboleth.extauthn.cache;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
 import javax.security.auth.x500.X500Principal;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.CERT_REVOKED;
 import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.CRL_MISSING;
 import static fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException.ErrorCode.CRL_SIGNATURE_FAILED;
 
 @Component
+@ManagedResource(objectName = "fi.vm.kapa.identification:type=CrlChecker", description = "CRL checks")
 public class CrlChecker {
 
     private static final Logger logger = LoggerFactory.getLogger(CrlChecker.class);
 
-    private final LoadingCache<X500Principal, X509CRL> cache;
+    private static final long DEFAULT_MISSING_CRL_CACHE_SIZE = 1000;
 
-    private X509CRL crl = null;
+    private static final long DEFAULT_MISSING_CRL_CACHE_EXPIRATION = 10000;
+
+    private final LoadingCache<X509Certificate, CrlEntry> cache;
+
+    // issuers for which no CRL was found, kept for a short time so that they don't trigger a reload on every request
+    private final Cache<X500Principal, Boolean> missingCrlCache;
+
+    private final Clock clock;
 
     @Autowired
-    public CrlChecker(LoadingCache<X500Principal,X509CRL> loadingCache) {
+    public CrlChecker(LoadingCache<X509Certificate,CrlEntry> loadingCache) {
+        this(loadingCache, DEFAULT_MISSING_CRL_CACHE_SIZE, DEFAULT_MISSING_CRL_CACHE_EXPIRATION);
+    }
+
+    public CrlChecker(LoadingCache<X509Certificate,CrlEntry> loadingCache, long missingCrlCacheSize, long missingCrlCacheExpiration) {
+        this(loadingCache, missingCrlCacheSize, missingCrlCacheExpiration, Clock.systemUTC());
+    }
+
+    CrlChecker(LoadingCache<X509Certificate,CrlEntry> loadingCache, long missingCrlCacheSize, long missingCrlCacheExpiration, Clock clock) {
         this.cache  = loadingCache;
+        this.clock = clock;
+        this.missingCrlCache = CacheBuilder.newBuilder()
+                .maximumSize(missingCrlCacheSize)
+                .expireAfterWrite(missingCrlCacheExpiration, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
     }
 
     @Nonnull
-    private X509CRL getCRL(@Nonnull X500Principal principal) throws CertificateStatusException {
+    private CrlEntry getCRL(@Nonnull X509Certificate iCACert, long now) throws CertificateStatusException {
+        X500Principal principal = iCACert.getSubjectX500Principal();
+        if (missingCrlCache.getIfPresent(principal) != null) {
+            logger.error("Error loading CRL, no CRL found recently for principal " + principal.toString());
+            throw new CertificateStatusException("CRL is missing.", CRL_MISSING);
+        }
         try {
-            return cache.get(principal);
+            CrlEntry cachedEntry = cache.get(iCACert);
+            if (!cachedEntry.isUsable(now)) {
+                // only the outdated entry is removed, an entry another thread has just reloaded is kept
+                logger.warn("Cached CRL is past its nextUpdate and grace period, reloading for principal " + principal.toString());
+                cache.asMap().remove(iCACert, cachedEntry);
+                cachedEntry = cache.get(iCACert);
+            } else if (cachedEntry.isExpired(now)) {
+                // the current entry is served while the CRL is reloaded in the background
+                if (cachedEntry.isInGracePeriod(now)) {
+                    logger.warn("No CRL newer than nextUpdate, using CRL within grace period for principal " + principal.toString());
+                }
+                cache.refresh(iCACert);
+                cachedEntry = cache.get(iCACert);
+            }
+            return cachedEntry;
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            logger.error("Error loading CRL, no CRL found for principal " + principal.toString());
+            missingCrlCache.put(principal, Boolean.TRUE);
+            throw new CertificateStatusException("CRL is missing.", CRL_MISSING);
         } catch (Exception e) {
             logger.error("Error loading CRL");
             throw new CertificateStatusException("CRL is missing.", CRL_MISSING);
         }
     }
 
+    /**
+     * Current time of the clock cached CRLs are validated against.
+     */
+    public long currentTimeMillis() {
+        return clock.millis();
+    }
+
+    /**
+     * Returns the cached CRL of the intermediate CA, loading it if necessary.
+     */
     @Nonnull
-    public X509CRL verifyAndValidate(X509Certificate iCACert, X509Certificate certificate) throws CertificateStatusException {
+    public CrlEntry getVerifiedCrl(X509Certificate iCACert) throws CertificateStatusException {
+        return getVerifiedCrl(iCACert, clock.millis());
+    }
 
-        crl = getCRL(certificate.getIssuerX500Principal());
+    /**
+     * Returns the cached CRL of the intermediate CA which is usable at the given time of
+     * {@link #currentTimeMillis()}, loading it if necessary.
+     */
+    @Nonnull
+    public CrlEntry getVerifiedCrl(X509Certificate iCACert, long now) throws CertificateStatusException {
 
-        //Check CRL signature validity against intermediate CA
-        try {
-            crl.verify(iCACert.getPublicKey());
-        } catch (Exception e) {
-            logger.error("CRL signature is not valid", e);
+        CrlEntry verifiedEntry = getCRL(iCACert, now);
+
+        // CRL signature is verified against intermediate CA when the CRL is loaded
+        if ( !verifiedEntry.isSignatureValid() ) {
+            logger.error("CRL signature is not valid");
             throw new CertificateStatusException("CRL signature is not valid.", CRL_SIGNATURE_FAILED);
         }
-        
-        if ( crl.isRevoked(certificate) ) {
-            logger.warn("Certificate is in CRL: "+ Integer.toString(crl.hashCode()));
+        return verifiedEntry;
+    }
+
+    @Nonnull
+    public CrlEntry verifyAndValidate(X509Certificate iCACert, X509Certificate certificate) throws CertificateStatusException {
+
+        CrlEntry crlEntry = getVerifiedCrl(iCACert);
+        checkRevocation(crlEntry, certificate);
+        return crlEntry;
+    }
+
+    public void checkRevocation(CrlEntry crlEntry, X509Certificate certificate) throws CertificateStatusException {
+
+        if ( crlEntry.isRevoked(certificate) ) {
+            logger.warn("Certificate is in CRL: "+ Integer.toString(crlEntry.hashCode()));
             throw new CertificateStatusException("Certificate is in CRL", CERT_REVOKED);
         } else {
-            logger.info("Certificate not in CRL" + Integer.toString(crl.hashCode()));
+            logger.info("Certificate not in CRL" + Integer.toString(crlEntry.hashCode()));
         }
+    }
 
-        return crl;
+    /**
+     * Reloads the cached CRLs of the given issuers after their CRL files have changed. A cached
+     * CRL is replaced only if the new one is valid, and issuers recorded as missing a CRL are
+     * looked up again on the next request.
+     */
+    public void refreshCrls(Set<X500Principal> issuers) {
+        missingCrlCache.invalidateAll(issuers);
+        for (X509Certificate iCACert : cache.asMap().keySet()) {
+            if (issuers.contains(iCACert.getSubjectX500Principal())) {
+                logger.info("CRL changed, refreshing CRL of principal " + iCACert.getSubjectX500Principal().toString());
+                cache.refresh(iCACert);
+            }
+        }
     }
 
-    public X509CRL getCrl() { return crl; }
+    /**
+     * Statistics of the missing CRL cache. Hits are requests rejected without reloading the CRL.
+     */
+    public CacheStats getMissingCrlCacheStats() { return missingCrlCache.stats(); }
+
+    @ManagedAttribute(description = "Number of requests rejected because no CRL was found recently for the issuer")
+    public long getMissingCrlCacheHitCount() { return missingCrlCache.stats().hitCount(); }
+
+    @ManagedAttribute(description = "Number of lookups of issuers which were not recorded as missing a CRL")
+    public long getMissingCrlCacheMissCount() { return missingCrlCache.stats().missCount(); }
+
+    @ManagedAttribute(description = "Number of issuers currently recorded as missing a CRL")
+    public long getMissingCrlCacheSize() { return missingCrlCache.size(); }
 
 }
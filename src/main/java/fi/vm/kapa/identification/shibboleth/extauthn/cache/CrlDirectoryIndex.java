@@ -0,0 +1,185 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Index of the CRL directory mapping each CRL issuer to its CRL files, newest first.
+ * Refreshing the index only stats the directory tree; a file is parsed again only when
+ * its modification time or size has changed.
+ */
+public class CrlDirectoryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrlDirectoryIndex.class);
+
+    private final Path crlDir;
+
+    // guarded by this
+    private final Map<Path, CrlFileInfo> files = new HashMap<>();
+
+    private volatile Map<X500Principal, List<CrlFileInfo>> issuers = Collections.emptyMap();
+
+    private volatile Consumer<Set<X500Principal>> changeListener;
+
+    // true if the directory watcher refreshes the index whenever the directory changes
+    private volatile boolean watched;
+
+    public CrlDirectoryIndex(String crlPath) {
+        this.crlDir = Paths.get(crlPath);
+    }
+
+    /**
+     * Listener notified with the issuers whose CRL files were added, changed or removed, whichever
+     * caller refreshed the index.
+     */
+    public void setChangeListener(Consumer<Set<X500Principal>> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Set when a directory watcher keeps the index up to date. Lookups then use the index as is
+     * and walk the directory only for issuers not found in the index.
+     */
+    public void setWatched(boolean watched) {
+        this.watched = watched;
+    }
+
+    /**
+     * Brings the index up to date with the CRL directory.
+     */
+    public void refresh() {
+        Set<X500Principal> changedIssuers = update();
+        Consumer<Set<X500Principal>> listener = changeListener;
+        if (listener != null && !changedIssuers.isEmpty()) {
+            listener.accept(changedIssuers);
+        }
+    }
+
+    private synchronized Set<X500Principal> update() {
+        CrlFileVisitor visitor = new CrlFileVisitor();
+        try {
+            Files.walkFileTree(crlDir, visitor);
+        } catch (IOException e) {
+            logger.error("Error reading CRL directory " + crlDir.toString(), e);
+            return Collections.emptySet();
+        }
+        Map<Path, BasicFileAttributes> found = visitor.getFiles();
+
+        Set<X500Principal> changedIssuers = new HashSet<>();
+        boolean changed = false;
+        Iterator<CrlFileInfo> known = files.values().iterator();
+        while (known.hasNext()) {
+            CrlFileInfo info = known.next();
+            if (!found.containsKey(info.getPath())) {
+                logger.debug("CRL " + info.getPath().toString() + " removed from index");
+                known.remove();
+                addIssuer(changedIssuers, info);
+                changed = true;
+            }
+        }
+        for (Map.Entry<Path, BasicFileAttributes> file : found.entrySet()) {
+            CrlFileInfo info = files.get(file.getKey());
+            if (info == null || !info.isUnchanged(file.getValue())) {
+                logger.debug("Indexing CRL " + file.getKey().toString());
+                CrlFileInfo newInfo = CrlFileInfo.read(file.getKey(), file.getValue());
+                files.put(file.getKey(), newInfo);
+                addIssuer(changedIssuers, info);
+                addIssuer(changedIssuers, newInfo);
+                changed = true;
+            }
+        }
+        if (changed) {
+            issuers = groupByIssuer(files.values());
+        }
+        return changedIssuers;
+    }
+
+    private static void addIssuer(Set<X500Principal> issuers, CrlFileInfo info) {
+        if (info != null && info.isReadable()) {
+            issuers.add(info.getIssuer());
+        }
+    }
+
+    /**
+     * Returns the newest CRL file of the issuer which is not past its nextUpdate time. If there is
+     * none, the newest outdated CRL file is returned if it is at most the grace period past its
+     * nextUpdate time.
+     */
+    CrlFileInfo getCrlFile(X500Principal principal, Date now, long gracePeriod) {
+        List<CrlFileInfo> candidates = issuers.get(principal);
+        if (candidates == null) {
+            return null;
+        }
+        for (CrlFileInfo candidate : candidates) {
+            if (!candidate.isOutdated(now)) {
+                return candidate;
+            }
+            logger.warn("Found outdated CRL (" + candidate.getPath().toString() + ")");
+        }
+        CrlFileInfo newest = candidates.get(0);
+        return newest.isOutdated(new Date(now.getTime() - gracePeriod)) ? null : newest;
+    }
+
+    /**
+     * Returns the CRL file of the issuer like {@link #getCrlFile}, refreshing the index first if it
+     * is not watched or the issuer is not in the index yet.
+     */
+    CrlFileInfo findCrlFile(X500Principal principal, Date now, long gracePeriod) {
+        if (!watched || !issuers.containsKey(principal)) {
+            refresh();
+        }
+        return getCrlFile(principal, now, gracePeriod);
+    }
+
+    private static Map<X500Principal, List<CrlFileInfo>> groupByIssuer(Iterable<CrlFileInfo> crlFiles) {
+        Map<X500Principal, List<CrlFileInfo>> byIssuer = new HashMap<>();
+        for (CrlFileInfo info : crlFiles) {
+            if (info.isReadable()) {
+                byIssuer.computeIfAbsent(info.getIssuer(), issuer -> new ArrayList<>()).add(info);
+            }
+        }
+        for (List<CrlFileInfo> candidates : byIssuer.values()) {
+            candidates.sort((a, b) -> a.isNewerThan(b) ? -1 : (b.isNewerThan(a) ? 1 : 0));
+        }
+        return byIssuer;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.cryptacular.x509.dn.NameReader;
+import org.cryptacular.x509.dn.StandardAttributeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+/**
+ * Cached CRL of an intermediate CA together with the result of its signature verification,
+ * which is done once when the CRL is loaded. Only the CRL metadata and a compact index of the
+ * revoked serial numbers are kept, the parsed CRL itself is not retained.
+ */
+public class CrlEntry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrlEntry.class);
+
+    private static final String DATE_TIME_PATTERN = "yyyyMMdd'T'HHmmss'Z'";
+
+    private final X500Principal issuer;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final BigInteger crlNumber;
+
+    private final RevokedSerialIndex revokedSerials;
+
+    // audit log fields, formatted once per loaded CRL
+    private final String issuerCN;
+
+    private final String crlNumberHex;
+
+    private final String formattedThisUpdate;
+
+    private final boolean signatureValid;
+
+    // CRL file the entry was read from, used to skip reloading unchanged files
+    private final CrlFileInfo source;
+
+    // time in milliseconds after which the entry is reloaded
+    private final long expiryTime;
+
+    // time in milliseconds after which the entry must not be used, nextUpdate plus the grace period,
+    // Long.MAX_VALUE if CRL update times are not validated
+    private final long usableUntil;
+
+    CrlEntry(MappedCrl crl, RevokedSerialIndex revokedSerials, boolean signatureValid, CrlFileInfo source, long expiryTime, long usableUntil) {
+        this.issuer = crl.getIssuer();
+        this.thisUpdate = crl.getThisUpdate();
+        this.nextUpdate = crl.getNextUpdate();
+        this.crlNumber = crl.getCrlNumber();
+        this.revokedSerials = revokedSerials;
+        this.issuerCN = readCommonName(issuer);
+        this.crlNumberHex = toHex(crlNumber);
+        this.formattedThisUpdate = format(thisUpdate);
+        this.signatureValid = signatureValid;
+        this.source = source;
+        this.expiryTime = expiryTime;
+        this.usableUntil = usableUntil;
+    }
+
+    private CrlEntry(CrlEntry entry, long expiryTime) {
+        this.issuer = entry.issuer;
+        this.thisUpdate = entry.thisUpdate;
+        this.nextUpdate = entry.nextUpdate;
+        this.crlNumber = entry.crlNumber;
+        this.revokedSerials = entry.revokedSerials;
+        this.issuerCN = entry.issuerCN;
+        this.crlNumberHex = entry.crlNumberHex;
+        this.formattedThisUpdate = entry.formattedThisUpdate;
+        this.signatureValid = entry.signatureValid;
+        this.source = entry.source;
+        this.expiryTime = expiryTime;
+        this.usableUntil = entry.usableUntil;
+    }
+
+    private static String readCommonName(X500Principal issuer) {
+        return issuer == null ? null : NameReader.readX500Principal(issuer).getValue(StandardAttributeType.CommonName);
+    }
+
+    private static String toHex(BigInteger crlNumber) {
+        if (crlNumber == null) {
+            logger.warn("CRL Number extension not present");
+            return "";
+        }
+        return String.format("%X", crlNumber);
+    }
+
+    private static String format(Date thisUpdate) {
+        return thisUpdate == null ? "" : DateFormatUtils.format(thisUpdate, DATE_TIME_PATTERN);
+    }
+
+    public boolean isRevoked(X509Certificate certificate) {
+        return revokedSerials.contains(certificate.getSerialNumber());
+    }
+
+    public X500Principal getIssuer() {
+        return issuer;
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    public BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+
+    /**
+     * CN of the CRL issuer, which is also the issuer of the certificates checked against the CRL.
+     */
+    public String getIssuerCN() {
+        return issuerCN;
+    }
+
+    /**
+     * CRL number in upper case hex, empty if the CRL has no CRL number.
+     */
+    public String getCrlNumberHex() {
+        return crlNumberHex;
+    }
+
+    /**
+     * thisUpdate of the CRL formatted for the audit log.
+     */
+    public String getFormattedThisUpdate() {
+        return formattedThisUpdate;
+    }
+
+    public boolean isSignatureValid() {
+        return signatureValid;
+    }
+
+    CrlFileInfo getSource() {
+        return source;
+    }
+
+    boolean isExpired(long now) {
+        return now >= expiryTime;
+    }
+
+    boolean isUsable(long now) {
+        return now <= usableUntil;
+    }
+
+    /**
+     * True if the CRL is past its nextUpdate time.
+     */
+    public boolean isPastNextUpdate(long now) {
+        return nextUpdate != null && now > nextUpdate.getTime();
+    }
+
+    /**
+     * True if the CRL is past its nextUpdate time and is used only within the grace period. Never
+     * true if CRL update times are not validated.
+     */
+    public boolean isInGracePeriod(long now) {
+        return usableUntil != Long.MAX_VALUE && isPastNextUpdate(now) && isUsable(now);
+    }
+
+    /**
+     * Copy of the entry to be kept in the cache until the given time.
+     */
+    CrlEntry withExpiryTime(long expiryTime) {
+        return new CrlEntry(this, expiryTime);
+    }
+}
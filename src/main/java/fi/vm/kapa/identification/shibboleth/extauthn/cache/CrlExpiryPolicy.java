@@ -0,0 +1,95 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.apache.commons.lang.StringUtils;
+import org.cryptacular.x509.dn.NameReader;
+import org.cryptacular.x509.dn.StandardAttributeType;
+
+import javax.security.auth.x500.X500Principal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how long a loaded CRL is kept in the cache. A CRL expires a safety margin before its
+ * nextUpdate time, so that it is reloaded on the issuer's own publication cadence. The margin is
+ * at most half of the CRL's validity period (thisUpdate to nextUpdate), and a CRL already inside
+ * the margin is kept for the minimum time before it is reloaded again. CRLs without nextUpdate,
+ * and issuers with an override, are kept for a fixed time.
+ */
+public class CrlExpiryPolicy {
+
+    private final long defaultTtl;
+    private final long safetyMargin;
+    private final long minTtl;
+
+    // fixed cache times by issuer common name
+    private final Map<String, Long> issuerTtls;
+
+    public CrlExpiryPolicy(long defaultTtl, long safetyMargin, long minTtl, Map<String, Long> issuerTtls) {
+        this.defaultTtl = defaultTtl;
+        this.safetyMargin = safetyMargin;
+        this.minTtl = minTtl;
+        this.issuerTtls = Collections.unmodifiableMap(new HashMap<>(issuerTtls));
+    }
+
+    /**
+     * Parses per-issuer cache times given as <code>CN:milliseconds;CN:milliseconds</code>.
+     */
+    public static Map<String, Long> parseIssuerTtls(String issuerTtls) {
+        Map<String, Long> ttls = new HashMap<>();
+        if (StringUtils.isBlank(issuerTtls)) {
+            return ttls;
+        }
+        for (String issuerTtl : issuerTtls.split(";")) {
+            int separator = issuerTtl.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid CRL cache time override: " + issuerTtl);
+            }
+            ttls.put(issuerTtl.substring(0, separator).trim(), Long.parseLong(issuerTtl.substring(separator + 1).trim()));
+        }
+        return ttls;
+    }
+
+    /**
+     * @return time in milliseconds after which a CRL loaded at the given time must be reloaded
+     */
+    long getExpiryTime(X500Principal issuer, Date thisUpdate, Date nextUpdate, long loadTime) {
+        if (!issuerTtls.isEmpty()) {
+            Long issuerTtl = issuerTtls.get(NameReader.readX500Principal(issuer).getValue(StandardAttributeType.CommonName));
+            if (issuerTtl != null) {
+                return loadTime + issuerTtl;
+            }
+        }
+        if (nextUpdate == null) {
+            return loadTime + defaultTtl;
+        }
+        long margin = safetyMargin;
+        if (thisUpdate != null && nextUpdate.after(thisUpdate)) {
+            margin = Math.min(margin, (nextUpdate.getTime() - thisUpdate.getTime()) / 2);
+        }
+        return Math.max(nextUpdate.getTime() - margin, loadTime + minTtl);
+    }
+}
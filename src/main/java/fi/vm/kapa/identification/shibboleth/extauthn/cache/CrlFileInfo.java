@@ -0,0 +1,125 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+
+/**
+ * Issuer and update time information of a single CRL file in the CRL directory.
+ */
+class CrlFileInfo {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrlFileInfo.class);
+
+    private final Path path;
+    private final FileTime lastModified;
+    private final long size;
+
+    private final X500Principal issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final BigInteger crlNumber;
+
+    private CrlFileInfo(Path path, BasicFileAttributes attributes, MappedCrl crl) {
+        this.path = path;
+        this.lastModified = attributes.lastModifiedTime();
+        this.size = attributes.size();
+        if (crl != null) {
+            this.issuer = crl.getIssuer();
+            this.thisUpdate = crl.getThisUpdate();
+            this.nextUpdate = crl.getNextUpdate();
+            this.crlNumber = crl.getCrlNumber();
+        } else {
+            this.issuer = null;
+            this.thisUpdate = null;
+            this.nextUpdate = null;
+            this.crlNumber = null;
+        }
+    }
+
+    /**
+     * Reads the CRL header of the file and collects its index information. Files which cannot be
+     * parsed are still recorded (without issuer) so that they are not re-read until they change.
+     */
+    static CrlFileInfo read(Path path, BasicFileAttributes attributes) {
+        MappedCrl crl = null;
+        try {
+            crl = MappedCrl.open(path);
+        } catch (Exception | InternalError e) {
+            // InternalError is thrown if the mapped file is truncated while it is being read
+            logger.error("Reading CRL "+ path.toString() +" from filesystem failed", e);
+        }
+        return new CrlFileInfo(path, attributes, crl);
+    }
+
+    boolean isUnchanged(BasicFileAttributes attributes) {
+        return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+    }
+
+    boolean isReadable() {
+        return issuer != null;
+    }
+
+    boolean isOutdated(Date now) {
+        return nextUpdate != null && now.after(nextUpdate);
+    }
+
+    /**
+     * A CRL is newer than another when it has a higher CRL number. If either one lacks the
+     * CRL number extension, the thisUpdate times are compared instead.
+     */
+    boolean isNewerThan(CrlFileInfo other) {
+        if (crlNumber != null && other.crlNumber != null) {
+            return crlNumber.compareTo(other.crlNumber) > 0;
+        }
+        return thisUpdate.after(other.thisUpdate);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    X500Principal getIssuer() {
+        return issuer;
+    }
+
+    Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+}
@@ -25,75 +25,40 @@ package fi.vm.kapa.identification.shibboleth.extauthn.cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.security.auth.x500.X500Principal;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509CRL;
-import java.time.Clock;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import static java.nio.file.FileVisitResult.CONTINUE;
-import static java.nio.file.FileVisitResult.TERMINATE;
 
+/**
+ * Collects the regular files and their attributes under the CRL directory without opening them.
+ */
 public class CrlFileVisitor extends SimpleFileVisitor<Path> {
 
     private static final Logger logger = LoggerFactory.getLogger(CrlFileVisitor.class);
 
-    private X509CRL crl = null;
-
-    private final X500Principal principal;
-
-    private final String crlUpdatetimeValidation;
-
-    private final Clock clock;
-
-    CrlFileVisitor(X500Principal principal, String crlUpdatetimeValidation, Clock clock) {
-        this.principal = principal;
-        this.crlUpdatetimeValidation = crlUpdatetimeValidation;
-        this.clock = clock;
-    }
+    private final Map<Path, BasicFileAttributes> files = new HashMap<>();
 
-    X509CRL getCRL() {
-        return this.crl;
+    Map<Path, BasicFileAttributes> getFiles() {
+        return files;
     }
 
     @Override
     public FileVisitResult visitFile(Path filePath, BasicFileAttributes basicFileAttributes) throws IOException {
         if (basicFileAttributes.isRegularFile()) {
-            try {
-                CertificateFactory cf = CertificateFactory.getInstance("X509");
-                FileInputStream inputStream = new FileInputStream(filePath.toString());
-                X509CRL x509Crl=(X509CRL)cf.generateCRL(inputStream);
-                if (x509Crl.getIssuerX500Principal().equals(principal) ) {
-                    // Check CRL updatetime validity
-                    if ( new Date(clock.millis()).after(x509Crl.getNextUpdate()) ) {
-                        if ( "0".equals(crlUpdatetimeValidation) ) {
-                            // return valid but expired CRL if up to date not found, for testing purposes only!
-                            crl = x509Crl;
-                        }
-                        logger.warn("Found outdated CRL (" + filePath.toString() + ")");
-                    }
-                    else {
-                        // return valid and up to date CRL
-                        crl = x509Crl;
-                        return TERMINATE;
-                    }
-                }
-            } catch (Exception e) {
-                logger.error("Reading CRL "+ filePath.toString() +" from filesystem failed", e);
-            }
+            files.put(filePath, basicFileAttributes);
         }
         return CONTINUE;
     }
 
     @Override
     public FileVisitResult visitFileFailed(Path filePath, IOException ioException) {
-        logger.warn("Reading certificate authority certificate "+ filePath.toString() +" from file system failed", ioException);
+        logger.warn("Reading CRL "+ filePath.toString() +" from file system failed", ioException);
         return CONTINUE;
     }
 }
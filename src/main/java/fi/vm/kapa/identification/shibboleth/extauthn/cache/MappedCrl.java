@@ -0,0 +1,415 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CRLException;
+import java.security.spec.PSSParameterSpec;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Streaming reader for a CRL file. DER files are memory-mapped and only the CRL header (issuer,
+ * update times and CRL number) is decoded when the file is opened; the revoked certificate list
+ * is skipped by its length. Revoked serials are decoded from the mapped file straight into a
+ * {@link RevokedSerialIndex} and the signature is verified over the mapped TBSCertList, so a
+ * large CRL is never materialised on the heap. PEM files are decoded into memory first.
+ */
+class MappedCrl {
+
+    private static final int SEQUENCE = 0x30;
+    private static final int INTEGER = 0x02;
+    private static final int BIT_STRING = 0x03;
+    private static final int OCTET_STRING = 0x04;
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int BOOLEAN = 0x01;
+    private static final int UTC_TIME = 0x17;
+    private static final int GENERALIZED_TIME = 0x18;
+    private static final int CRL_EXTENSIONS = 0xA0;
+    private static final int DIRECTORY_NAME = 0xA4;
+
+    // OID content octets of id-ce-cRLNumber (2.5.29.20) and id-ce-certificateIssuer (2.5.29.29)
+    private static final byte[] CRL_NUMBER_OID = {0x55, 0x1D, 0x14};
+    private static final byte[] CERTIFICATE_ISSUER_OID = {0x55, 0x1D, 0x1D};
+
+    private static final String RSASSA_PSS_OID = "1.2.840.113549.1.1.10";
+
+    private static final byte[] PEM_HEADER = "-----BEGIN".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buffer;
+
+    private int tbsStart;
+    private int tbsEnd;
+    private int signatureAlgorithmStart;
+    private int signatureAlgorithmEnd;
+    private int signatureStart;
+    private int signatureEnd;
+    private int revokedStart = -1;
+    private int revokedEnd = -1;
+
+    private X500Principal issuer;
+    private Date thisUpdate;
+    private Date nextUpdate;
+    private BigInteger crlNumber;
+
+    private MappedCrl(ByteBuffer buffer) throws CRLException {
+        this.buffer = buffer;
+        parse();
+    }
+
+    static MappedCrl open(Path path) throws IOException, CRLException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (isPem(buffer)) {
+                buffer = decodePem(Files.readAllBytes(path));
+            }
+            return new MappedCrl(buffer);
+        }
+    }
+
+    private static boolean isPem(ByteBuffer buffer) {
+        if (buffer.limit() < PEM_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < PEM_HEADER.length; i++) {
+            if (buffer.get(i) != PEM_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer decodePem(byte[] pem) throws CRLException {
+        String text = new String(pem, StandardCharsets.US_ASCII);
+        int begin = text.indexOf('\n');
+        int end = text.indexOf("-----END");
+        if (begin < 0 || end < begin) {
+            throw new CRLException("Invalid PEM encoded CRL");
+        }
+        try {
+            return ByteBuffer.wrap(Base64.getMimeDecoder().decode(text.substring(begin + 1, end)));
+        } catch (IllegalArgumentException e) {
+            throw new CRLException("Invalid PEM encoded CRL", e);
+        }
+    }
+
+    private void parse() throws CRLException {
+        try {
+            int position = enter(SEQUENCE, 0);
+
+            // TBSCertList
+            tbsStart = position;
+            int tbsContent = enter(SEQUENCE, position);
+            tbsEnd = end(position);
+            position = tbsContent;
+            if (tag(position) == INTEGER) {
+                position = end(position);
+            }
+            int innerSignatureAlgorithm = position;
+            position = end(expect(SEQUENCE, position));
+            issuer = new X500Principal(bytes(expect(SEQUENCE, position), end(position)));
+            position = end(position);
+            thisUpdate = readTime(position);
+            position = end(position);
+            if (position < tbsEnd && (tag(position) == UTC_TIME || tag(position) == GENERALIZED_TIME)) {
+                nextUpdate = readTime(position);
+                position = end(position);
+            }
+            if (position < tbsEnd && tag(position) == SEQUENCE) {
+                revokedStart = content(position);
+                revokedEnd = end(position);
+                position = revokedEnd;
+            }
+            if (position < tbsEnd && tag(position) == CRL_EXTENSIONS) {
+                crlNumber = readCrlNumber(enter(SEQUENCE, content(position)), end(content(position)));
+            }
+
+            // signatureAlgorithm and signatureValue
+            position = tbsEnd;
+            signatureAlgorithmStart = position;
+            signatureAlgorithmEnd = end(expect(SEQUENCE, position));
+            if (!equalRegions(innerSignatureAlgorithm, signatureAlgorithmStart, signatureAlgorithmEnd - signatureAlgorithmStart)) {
+                throw new CRLException("Signature algorithm mismatch");
+            }
+            position = signatureAlgorithmEnd;
+            signatureStart = content(expect(BIT_STRING, position)) + 1;
+            signatureEnd = end(position);
+        } catch (IndexOutOfBoundsException e) {
+            throw new CRLException("Truncated CRL", e);
+        }
+    }
+
+    X500Principal getIssuer() {
+        return issuer;
+    }
+
+    Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    BigInteger getCrlNumber() {
+        return crlNumber;
+    }
+
+    /**
+     * Verifies the CRL signature over the TBSCertList.
+     */
+    boolean verify(PublicKey publicKey) {
+        try {
+            String algorithm = readOid(content(signatureAlgorithmStart));
+            Signature signature = Signature.getInstance(algorithm);
+            if (RSASSA_PSS_OID.equals(algorithm)) {
+                int parameters = end(content(signatureAlgorithmStart));
+                AlgorithmParameters pssParameters = AlgorithmParameters.getInstance("RSASSA-PSS");
+                pssParameters.init(bytes(parameters, end(parameters)));
+                signature.setParameter(pssParameters.getParameterSpec(PSSParameterSpec.class));
+            }
+            signature.initVerify(publicKey);
+            ByteBuffer tbs = buffer.duplicate();
+            tbs.limit(tbsEnd).position(tbsStart);
+            signature.update(tbs);
+            return signature.verify(bytes(signatureStart, signatureEnd));
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Streams the serials of the revoked certificates of the CRL issuer into a revoked serial index.
+     * Entries of an indirect CRL for other certificate issuers are skipped.
+     */
+    RevokedSerialIndex readRevokedSerials() throws CRLException {
+        RevokedSerialIndex.Builder builder = RevokedSerialIndex.builder();
+        if (revokedStart < 0) {
+            return builder.build();
+        }
+        try {
+            boolean issuerEntries = true;
+            int position = revokedStart;
+            while (position < revokedEnd) {
+                int entryEnd = end(expect(SEQUENCE, position));
+                int serial = content(position);
+                int serialContent = content(expect(INTEGER, serial));
+                int next = end(end(serial));
+                if (next < entryEnd) {
+                    X500Principal certificateIssuer = readCertificateIssuer(content(expect(SEQUENCE, next)), entryEnd);
+                    if (certificateIssuer != null) {
+                        issuerEntries = certificateIssuer.equals(issuer);
+                    }
+                }
+                if (issuerEntries) {
+                    builder.add(buffer, serialContent, end(serial) - serialContent);
+                }
+                position = entryEnd;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new CRLException("Truncated CRL", e);
+        }
+        return builder.build();
+    }
+
+    private BigInteger readCrlNumber(int position, int end) {
+        int extension = findExtension(position, end, CRL_NUMBER_OID);
+        if (extension < 0) {
+            return null;
+        }
+        int value = content(expect(INTEGER, content(extension)));
+        return new BigInteger(bytes(value, end(content(extension))));
+    }
+
+    private X500Principal readCertificateIssuer(int position, int end) {
+        int extension = findExtension(position, end, CERTIFICATE_ISSUER_OID);
+        if (extension < 0) {
+            return null;
+        }
+        // GeneralNames, the first directoryName is the certificate issuer
+        int generalNames = content(expect(SEQUENCE, content(extension)));
+        int generalNamesEnd = end(content(extension));
+        for (int name = generalNames; name < generalNamesEnd; name = end(name)) {
+            if (tag(name) == DIRECTORY_NAME) {
+                int dn = content(name);
+                return new X500Principal(bytes(expect(SEQUENCE, dn), end(dn)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds an extension by OID from the Extensions content and returns the position of its extnValue OCTET STRING.
+     */
+    private int findExtension(int position, int end, byte[] oid) {
+        while (position < end) {
+            int field = content(expect(SEQUENCE, position));
+            int oidContent = content(expect(OBJECT_IDENTIFIER, field));
+            boolean match = end(field) - oidContent == oid.length && equalsBytes(oidContent, oid);
+            field = end(field);
+            if (tag(field) == BOOLEAN) {
+                field = end(field);
+            }
+            if (match) {
+                return expect(OCTET_STRING, field);
+            }
+            position = end(position);
+        }
+        return -1;
+    }
+
+    private Date readTime(int position) throws CRLException {
+        int tag = tag(position);
+        String time = new String(bytes(content(position), end(position)), StandardCharsets.US_ASCII);
+        try {
+            int year;
+            int index;
+            if (tag == UTC_TIME) {
+                year = Integer.parseInt(time.substring(0, 2));
+                year += year < 50 ? 2000 : 1900;
+                index = 2;
+            } else if (tag == GENERALIZED_TIME) {
+                year = Integer.parseInt(time.substring(0, 4));
+                index = 4;
+            } else {
+                throw new CRLException("Invalid time in CRL");
+            }
+            int month = Integer.parseInt(time.substring(index, index + 2));
+            int day = Integer.parseInt(time.substring(index + 2, index + 4));
+            int hour = Integer.parseInt(time.substring(index + 4, index + 6));
+            int minute = Integer.parseInt(time.substring(index + 6, index + 8));
+            int second = Integer.parseInt(time.substring(index + 8, index + 10));
+            int nanos = 0;
+            if (time.charAt(index + 10) == '.') {
+                String fraction = time.substring(index + 11, time.length() - 1);
+                nanos = Integer.parseInt((fraction + "000000000").substring(0, 9));
+            }
+            return Date.from(LocalDateTime.of(year, month, day, hour, minute, second, nanos).toInstant(ZoneOffset.UTC));
+        } catch (RuntimeException e) {
+            throw new CRLException("Invalid time in CRL: " + time, e);
+        }
+    }
+
+    private String readOid(int position) {
+        int content = content(expect(OBJECT_IDENTIFIER, position));
+        int end = end(position);
+        StringBuilder oid = new StringBuilder();
+        long value = 0;
+        boolean first = true;
+        for (int i = content; i < end; i++) {
+            int b = buffer.get(i) & 0xFF;
+            value = (value << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) {
+                if (first) {
+                    int arc = (int) Math.min(value / 40, 2);
+                    oid.append(arc).append('.').append(value - 40L * arc);
+                    first = false;
+                } else {
+                    oid.append('.').append(value);
+                }
+                value = 0;
+            }
+        }
+        return oid.toString();
+    }
+
+    private int tag(int position) {
+        return buffer.get(position) & 0xFF;
+    }
+
+    private int expect(int tag, int position) {
+        if (tag(position) != tag) {
+            throw new IndexOutOfBoundsException("Unexpected tag " + tag(position) + " at " + position);
+        }
+        return position;
+    }
+
+    private int enter(int tag, int position) {
+        return content(expect(tag, position));
+    }
+
+    private int content(int position) {
+        int first = buffer.get(position + 1) & 0xFF;
+        return first < 0x80 ? position + 2 : position + 2 + (first & 0x7F);
+    }
+
+    private int end(int position) {
+        int first = buffer.get(position + 1) & 0xFF;
+        int length = first;
+        if (first >= 0x80) {
+            int octets = first & 0x7F;
+            if (octets == 0 || octets > 4) {
+                throw new IndexOutOfBoundsException("Unsupported length encoding at " + position);
+            }
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = (length << 8) | (buffer.get(position + 2 + i) & 0xFF);
+            }
+        }
+        int end = content(position) + length;
+        if (length < 0 || end > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Length exceeds CRL at " + position);
+        }
+        return end;
+    }
+
+    private byte[] bytes(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return bytes;
+    }
+
+    private boolean equalsBytes(int start, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalRegions(int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(a + i) != buffer.get(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
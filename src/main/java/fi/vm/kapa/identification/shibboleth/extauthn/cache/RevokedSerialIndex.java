@@ -0,0 +1,193 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact set of revoked certificate serial numbers. The serials are stored sign-extended to a
+ * common width in one sorted byte array and looked up with binary search, so a CRL with a large
+ * number of entries takes only a few tens of bytes per entry.
+ */
+public class RevokedSerialIndex {
+
+    private final byte[] serials;
+
+    private final int width;
+
+    private final int size;
+
+    private RevokedSerialIndex(byte[] serials, int width, int size) {
+        this.serials = serials;
+        this.width = width;
+        this.size = size;
+    }
+
+    public boolean contains(BigInteger serialNumber) {
+        byte[] serial = serialNumber.toByteArray();
+        if (serial.length > width) {
+            return false;
+        }
+        byte[] key = pad(serial, width);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(serials, middle * width, key, 0, width);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static byte[] pad(byte[] serial, int width) {
+        if (serial.length == width) {
+            return serial;
+        }
+        byte[] padded = new byte[width];
+        if (serial[0] < 0) {
+            Arrays.fill(padded, 0, width - serial.length, (byte) 0xFF);
+        }
+        System.arraycopy(serial, 0, padded, width - serial.length, serial.length);
+        return padded;
+    }
+
+    private static int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int comparison = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    public static class Builder {
+
+        private byte[] serials = new byte[1024];
+
+        private int[] offsets = new int[65];
+
+        private int count = 0;
+
+        private int width = 1;
+
+        private Builder() {
+        }
+
+        public Builder add(BigInteger serialNumber) {
+            return add(serialNumber.toByteArray());
+        }
+
+        /**
+         * Adds a serial number given as two's complement big-endian bytes, as in DER encoded INTEGER content.
+         */
+        public Builder add(byte[] serial) {
+            return add(ByteBuffer.wrap(serial), 0, serial.length);
+        }
+
+        /**
+         * Adds a serial number read from a buffer without copying it to an intermediate array.
+         */
+        public Builder add(ByteBuffer buffer, int offset, int length) {
+            if (length == 0) {
+                throw new IllegalArgumentException("Empty serial number");
+            }
+            int end = offsets[count];
+            if (end + length > serials.length) {
+                serials = Arrays.copyOf(serials, Math.max(serials.length * 2, end + length));
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            for (int i = 0; i < length; i++) {
+                serials[end + i] = buffer.get(offset + i);
+            }
+            offsets[++count] = end + length;
+            width = Math.max(width, length);
+            return this;
+        }
+
+        public RevokedSerialIndex build() {
+            byte[] sorted = new byte[count * width];
+            for (int i = 0; i < count; i++) {
+                int length = offsets[i + 1] - offsets[i];
+                int padding = width - length;
+                if (serials[offsets[i]] < 0) {
+                    Arrays.fill(sorted, i * width, i * width + padding, (byte) 0xFF);
+                }
+                System.arraycopy(serials, offsets[i], sorted, i * width + padding, length);
+            }
+            serials = null;
+            offsets = null;
+            heapSort(sorted, width, count);
+            return new RevokedSerialIndex(sorted, width, count);
+        }
+
+        private static void heapSort(byte[] records, int width, int count) {
+            byte[] swap = new byte[width];
+            for (int i = count / 2 - 1; i >= 0; i--) {
+                siftDown(records, width, i, count, swap);
+            }
+            for (int end = count - 1; end > 0; end--) {
+                swap(records, width, 0, end, swap);
+                siftDown(records, width, 0, end, swap);
+            }
+        }
+
+        private static void siftDown(byte[] records, int width, int root, int count, byte[] swap) {
+            while (2 * root + 1 < count) {
+                int child = 2 * root + 1;
+                if (child + 1 < count && compare(records, child * width, records, (child + 1) * width, width) < 0) {
+                    child++;
+                }
+                if (compare(records, root * width, records, child * width, width) >= 0) {
+                    return;
+                }
+                swap(records, width, root, child, swap);
+                root = child;
+            }
+        }
+
+        private static void swap(byte[] records, int width, int i, int j, byte[] swap) {
+            System.arraycopy(records, i * width, swap, 0, width);
+            System.arraycopy(records, j * width, records, i * width, width);
+            System.arraycopy(swap, 0, records, j * width, width);
+        }
+    }
+}
@@ -23,8 +23,10 @@
 
 package fi.vm.kapa.identification.shibboleth.extauthn.config;
 
+import fi.vm.kapa.identification.shibboleth.extauthn.CacheWarmer;
 import fi.vm.kapa.identification.shibboleth.extauthn.CertificateChecker;
 import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.SignatureVerifier;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -41,12 +43,39 @@ public class CertificateCheckerConfiguration {
     @Value("${ca.dir.path}")
     private String caPath;
 
+    // number of warm-up rounds over all intermediate CAs after their CRLs have been preloaded
+    @Value("${warmup.iterations:1000}")
+    private int warmupIterations;
+
+    // cache of verified issuer chains by certificate fingerprint
+    @Value("${cert.issuer.cache.size:10000}")
+    private long verifiedIssuerCacheSize;
+
+    @Value("${cert.issuer.cache.expiration.time:3600000}")
+    private long verifiedIssuerCacheExpiration;
+
+    // preferred provider of signature verification, for example BC or SunRsaSign, empty for the JCA defaults
+    @Value("${signature.provider:}")
+    private String signatureProvider;
+
     @Autowired
     private CrlChecker crlChecker;
 
+    @Bean
+    SignatureVerifier provideSignatureVerifier() {
+        return new SignatureVerifier(signatureProvider);
+    }
+
     @Bean(name = "certificateChecker")
     CertificateChecker provideCertificateChecker() {
-        return new CertificateChecker(icaPath, caPath, crlChecker);
+        return new CertificateChecker(icaPath, caPath, crlChecker, verifiedIssuerCacheSize, verifiedIssuerCacheExpiration, provideSignatureVerifier());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    CacheWarmer provideCacheWarmer() {
+        CacheWarmer cacheWarmer = new CacheWarmer(provideCertificateChecker(), warmupIterations);
+        cacheWarmer.start();
+        return cacheWarmer;
     }
 
 }
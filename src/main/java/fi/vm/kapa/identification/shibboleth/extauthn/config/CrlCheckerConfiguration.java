@@ -23,18 +23,28 @@
 package fi.vm.kapa.identification.shibboleth.extauthn.config;
 
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlCacheLoader;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlCacheRefresher;
 import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlDirectoryIndex;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntry;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlExpiryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.security.cert.X509Certificate;
 import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class CrlCheckerConfiguration {
 
+    private static final Logger logger = LoggerFactory.getLogger(CrlCheckerConfiguration.class);
+
     @Value("${crl.cache.expiration.time}")
     private int crlCacheExpiration;
 
@@ -45,17 +55,81 @@ public class CrlCheckerConfiguration {
     @Value("${crl.updatetime.validation}")
     private String crlUpdateTimeValidation;
 
+    // expire each cached CRL by its own nextUpdate time instead of crl.cache.expiration.time
+    @Value("${crl.cache.expiration.nextupdate:false}")
+    private boolean crlCacheExpirationByNextUpdate;
+
+    // time in milliseconds before nextUpdate when a cached CRL is reloaded
+    @Value("${crl.cache.expiration.margin:300000}")
+    private long crlCacheExpirationMargin;
+
+    // minimum time in milliseconds a CRL is cached, used when the CRL is already within the margin
+    @Value("${crl.cache.expiration.min.time:60000}")
+    private long crlCacheExpirationMinTime;
+
+    // fixed cache times per issuer, CN:milliseconds;CN:milliseconds
+    @Value("${crl.cache.expiration.overrides:}")
+    private String crlCacheExpirationOverrides;
+
+    // time in milliseconds a CRL is still used after its nextUpdate if no newer CRL is available, 0 disables
+    @Value("${crl.grace.period:0}")
+    private long crlGracePeriod;
+
+    @Value("${crl.missing.cache.expiration.time:10000}")
+    private long missingCrlCacheExpiration;
+
+    @Value("${crl.missing.cache.size:1000}")
+    private long missingCrlCacheSize;
+
+    // CRL refresh interval in milliseconds, 0 disables background refresh
+    @Value("${crl.cache.refresh.time:0}")
+    private long crlCacheRefreshTime;
+
+    @Value("${crl.cache.refresh.threads:1}")
+    private int crlCacheRefreshThreads;
+
+    @Bean(destroyMethod = "shutdown")
+    CrlCacheRefresher provideCrlCacheRefresher() {
+        return new CrlCacheRefresher(crlCacheRefreshThreads);
+    }
+
+    @Bean
+    CrlDirectoryIndex provideCrlDirectoryIndex() {
+        return new CrlDirectoryIndex(crlPath);
+    }
+
     @Bean
     LoadingCache provideCacheImplementation() {
-        return CacheBuilder.newBuilder()
-                .maximumSize(1000)
-                .expireAfterWrite(crlCacheExpiration, TimeUnit.MILLISECONDS)
-                .build(new CrlCacheLoader(crlPath, crlUpdateTimeValidation));
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumSize(1000);
+        CrlExpiryPolicy expiryPolicy = null;
+        if (crlCacheExpirationByNextUpdate) {
+            // CRLs without nextUpdate are kept for crl.cache.expiration.time
+            expiryPolicy = new CrlExpiryPolicy(crlCacheExpiration, crlCacheExpirationMargin, crlCacheExpirationMinTime,
+                    CrlExpiryPolicy.parseIssuerTtls(crlCacheExpirationOverrides));
+        } else {
+            cacheBuilder.expireAfterWrite(crlCacheExpiration, TimeUnit.MILLISECONDS);
+        }
+        CacheLoader<X509Certificate, CrlEntry> cacheLoader = new CrlCacheLoader(provideCrlDirectoryIndex(), crlUpdateTimeValidation, expiryPolicy, crlGracePeriod);
+
+        // expired CRLs are reloaded in the background while the current one is still usable
+        CrlCacheRefresher crlCacheRefresher = provideCrlCacheRefresher();
+        LoadingCache<X509Certificate, CrlEntry> cache = cacheBuilder.build(CacheLoader.asyncReloading(cacheLoader, crlCacheRefresher.getExecutor()));
+        if (crlCacheRefreshTime > 0) {
+            if (!crlCacheExpirationByNextUpdate && crlCacheRefreshTime >= crlCacheExpiration) {
+                logger.warn("CRL cache refresh time is not shorter than expiration time, CRLs may expire before refresh");
+            }
+            crlCacheRefresher.start(cache, crlCacheRefreshTime);
+        }
+        return cache;
     }
 
     @Bean(name = "crlChecker")
     CrlChecker provideCrlChecker() {
-        return new CrlChecker(provideCacheImplementation());
+        CrlChecker crlChecker = new CrlChecker(provideCacheImplementation(), missingCrlCacheSize, missingCrlCacheExpiration);
+        // cached CRLs are reloaded as soon as the index notices that their files have changed
+        provideCrlDirectoryIndex().setChangeListener(crlChecker::refreshCrls);
+        return crlChecker;
     }
 
 }
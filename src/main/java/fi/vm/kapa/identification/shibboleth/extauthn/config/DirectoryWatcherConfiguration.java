@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.config;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.CertificateChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlDirectoryIndex;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.DirectoryWatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DirectoryWatcherConfiguration {
+
+    @Value("${ica.dir.path}")
+    private String icaPath;
+
+    @Value("${ca.dir.path}")
+    private String caPath;
+
+    @Value("${crl.dir.path}")
+    private String crlPath;
+
+    // switch to disable reloading of changed CRL and CA/iCA files
+    @Value("${dir.watch.enabled:true}")
+    private boolean watchEnabled;
+
+    // poll interval in milliseconds for file systems without change events (NFS), 0 disables polling
+    @Value("${dir.watch.poll.interval:0}")
+    private long pollInterval;
+
+    // time in milliseconds to wait for more changes before reloading
+    @Value("${dir.watch.settle.time:200}")
+    private long settleTime;
+
+    @Autowired
+    private CrlDirectoryIndex crlDirectoryIndex;
+
+    @Autowired
+    private CertificateChecker certificateChecker;
+
+    @Bean(destroyMethod = "shutdown")
+    DirectoryWatcher provideDirectoryWatcher() {
+        DirectoryWatcher directoryWatcher = new DirectoryWatcher(pollInterval, settleTime);
+        if (watchEnabled) {
+            directoryWatcher.watch(crlPath, crlDirectoryIndex::refresh);
+            crlDirectoryIndex.setWatched(true);
+            Runnable certificateReloader = certificateChecker::reloadCertificates;
+            directoryWatcher.watch(caPath, certificateReloader);
+            directoryWatcher.watch(icaPath, certificateReloader);
+            directoryWatcher.start();
+        }
+        return directoryWatcher;
+    }
+
+}
@@ -23,6 +23,8 @@
 
 package fi.vm.kapa.identification.shibboleth.extauthn.config;
 
+import fi.vm.kapa.identification.shibboleth.extauthn.vartti.HetuCache;
+import fi.vm.kapa.identification.shibboleth.extauthn.vartti.VarttiCircuitBreaker;
 import fi.vm.kapa.identification.shibboleth.extauthn.vartti.VarttiClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -34,8 +36,53 @@ public class VarttiClientConfiguration {
     @Value("${vartti.client.endpoint}")
     private String varttiClientEndpoint;
 
-    @Bean(name = "varttiClient")
+    // maximum number of pooled keep-alive connections in total and to the Vartti host
+    @Value("${vartti.client.max.connections:20}")
+    private int maxConnections;
+
+    @Value("${vartti.client.max.connections.per.route:20}")
+    private int maxConnectionsPerRoute;
+
+    // time in milliseconds a pooled connection is kept alive at most (0 = no limit)
+    @Value("${vartti.client.connection.ttl:60000}")
+    private long connectionTtl;
+
+    // time in milliseconds after which idle pooled connections are closed (0 = never)
+    @Value("${vartti.client.idle.timeout:30000}")
+    private long idleTimeout;
+
+    // time in milliseconds to wait for a free connection when all pooled connections are in use
+    @Value("${vartti.client.pool.timeout:5000}")
+    private long poolTimeout;
+
+    // connect and read timeouts of Vartti requests in milliseconds
+    @Value("${vartti.client.connect.timeout:2000}")
+    private int connectTimeout;
+
+    @Value("${vartti.client.read.timeout:5000}")
+    private int readTimeout;
+
+    // consecutive failures after which Vartti requests are rejected for the open time (0 = breaker disabled)
+    @Value("${vartti.breaker.failure.threshold:5}")
+    private int breakerFailureThreshold;
+
+    @Value("${vartti.breaker.open.time:30000}")
+    private long breakerOpenTime;
+
+    // cache of hetus resolved by Vartti, kept encrypted in memory
+    @Value("${vartti.cache.enabled:false}")
+    private boolean hetuCacheEnabled;
+
+    @Value("${vartti.cache.size:10000}")
+    private long hetuCacheSize;
+
+    @Value("${vartti.cache.expiration.time:3600000}")
+    private long hetuCacheExpiration;
+
+    @Bean(name = "varttiClient", destroyMethod = "close")
     VarttiClient provideVarttiClient() {
-        return new VarttiClient(varttiClientEndpoint);
+        return new VarttiClient(varttiClientEndpoint, maxConnections, maxConnectionsPerRoute, connectionTtl, idleTimeout, poolTimeout,
+                connectTimeout, readTimeout, new VarttiCircuitBreaker(breakerFailureThreshold, breakerOpenTime),
+                hetuCacheEnabled ? new HetuCache(hetuCacheSize, hetuCacheExpiration) : null);
     }
 }
@@ -37,12 +37,20 @@ public class AuditLoggerContext extends BaseContext {
 
     private final boolean isRevoked;
 
+    // CRL was past its nextUpdate time and used within the grace period
+    private final boolean isCrlInGracePeriod;
+
     public AuditLoggerContext(String serialNumber, String crlNumber, String issuerCN, String lastUpdate, boolean isRevoked) {
+         this(serialNumber, crlNumber, issuerCN, lastUpdate, isRevoked, false);
+    }
+
+    public AuditLoggerContext(String serialNumber, String crlNumber, String issuerCN, String lastUpdate, boolean isRevoked, boolean isCrlInGracePeriod) {
          this.serialNumber = serialNumber;
          this.crlNumber = crlNumber;
          this.issuerCN = issuerCN;
          this.lastUpdate = lastUpdate;
          this.isRevoked = isRevoked;
+         this.isCrlInGracePeriod = isCrlInGracePeriod;
     }
 
     public String getSerialNumber() {
@@ -65,4 +73,8 @@ public class AuditLoggerContext extends BaseContext {
         return isRevoked;
     }
 
+    public boolean isCrlInGracePeriod() {
+        return isCrlInGracePeriod;
+    }
+
 }
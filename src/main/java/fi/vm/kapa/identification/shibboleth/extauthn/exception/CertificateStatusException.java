@@ -23,6 +23,8 @@
 
 package fi.vm.kapa.identification.shibboleth.extauthn.exception;
 
+import fi.vm.kapa.identification.shibboleth.extauthn.context.AuditLoggerContext;
+
 public class CertificateStatusException extends Exception {
 
     public enum ErrorCode {
@@ -49,12 +51,24 @@ public class CertificateStatusException extends Exception {
 
     private final ErrorCode errorCode;
 
+    // audit information of a revoked certificate
+    private final AuditLoggerContext auditLoggerContext;
+
     public CertificateStatusException(String reason, ErrorCode code) {
+        this(reason, code, null);
+    }
+
+    public CertificateStatusException(String reason, ErrorCode code, AuditLoggerContext auditLoggerContext) {
         super(reason);
         errorCode = code;
+        this.auditLoggerContext = auditLoggerContext;
     }
 
     public ErrorCode getErrorCode() {
         return errorCode;
     }
+
+    public AuditLoggerContext getAuditLoggerContext() {
+        return auditLoggerContext;
+    }
 }
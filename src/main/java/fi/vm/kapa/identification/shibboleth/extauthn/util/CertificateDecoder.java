@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * Decoder for client certificates sent as PEM, with or without the PEM header and footer and
+ * with any whitespace in the Base64 data. The Base64 data is decoded straight from the string
+ * to DER bytes.
+ */
+public final class CertificateDecoder {
+
+    // longer input is rejected before decoding, card certificates are a few kilobytes
+    public static final int MAX_PEM_LENGTH = 16384;
+
+    private static final String X509_PEM_HEADER = "-----BEGIN CERTIFICATE-----";
+    private static final String X509_PEM_FOOTER = "-----END CERTIFICATE-----";
+
+    private static final byte WHITESPACE = -2;
+    private static final byte INVALID = -1;
+
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES[' '] = WHITESPACE;
+        BASE64_VALUES['\t'] = WHITESPACE;
+        BASE64_VALUES['\r'] = WHITESPACE;
+        BASE64_VALUES['\n'] = WHITESPACE;
+    }
+
+    // CertificateFactory is not documented to be thread-safe, so each thread has its own
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (CertificateException e) {
+            throw new IllegalStateException("X.509 certificate factory not available", e);
+        }
+    });
+
+    private CertificateDecoder() {
+    }
+
+    public static X509Certificate decodeCertificate(String pemCertificate) throws CertificateException {
+        return generateCertificate(decodeDer(pemCertificate));
+    }
+
+    public static X509Certificate generateCertificate(byte[] derCertificate) throws CertificateException {
+        return (X509Certificate) CERTIFICATE_FACTORY.get().generateCertificate(new ByteArrayInputStream(derCertificate));
+    }
+
+    /**
+     * Strips the PEM header, footer and whitespace and decodes the Base64 data.
+     *
+     * @throws CertificateException if the input is missing, too long or not valid Base64
+     */
+    public static byte[] decodeDer(String pemCertificate) throws CertificateException {
+        if (pemCertificate == null) {
+            throw new CertificateException("Certificate is missing");
+        }
+        if (pemCertificate.length() > MAX_PEM_LENGTH) {
+            throw new CertificateException("Certificate is too long: " + pemCertificate.length() + " characters");
+        }
+        int start = 0;
+        int end = pemCertificate.length();
+        int header = pemCertificate.indexOf(X509_PEM_HEADER);
+        if (header >= 0) {
+            start = header + X509_PEM_HEADER.length();
+            int footer = pemCertificate.indexOf(X509_PEM_FOOTER, start);
+            if (footer < 0) {
+                throw new CertificateException("Certificate PEM footer is missing");
+            }
+            end = footer;
+        }
+        return decodeBase64(pemCertificate, start, end);
+    }
+
+    private static byte[] decodeBase64(String data, int start, int end) throws CertificateException {
+        // upper bound, whitespace and padding make the result shorter
+        byte[] result = new byte[(end - start) / 4 * 3 + 3];
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        int padding = 0;
+        for (int i = start; i < end; i++) {
+            char c = data.charAt(i);
+            if (c == '=') {
+                padding++;
+                continue;
+            }
+            byte value = c < 128 ? BASE64_VALUES[c] : INVALID;
+            if (value == WHITESPACE) {
+                continue;
+            }
+            if (value == INVALID || padding > 0) {
+                throw new CertificateException("Certificate is not valid Base64");
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                result[length++] = (byte) (bits >> 16);
+                result[length++] = (byte) (bits >> 8);
+                result[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1 || padding > 2 || (padding > 0 && count + padding != 4)) {
+            throw new CertificateException("Certificate is not valid Base64");
+        }
+        if (count == 2) {
+            result[length++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            result[length++] = (byte) (bits >> 10);
+            result[length++] = (byte) (bits >> 2);
+        }
+        if (length == 0) {
+            throw new CertificateException("Certificate is empty");
+        }
+        return Arrays.copyOf(result, length);
+    }
+}
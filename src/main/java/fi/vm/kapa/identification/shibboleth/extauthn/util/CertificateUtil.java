@@ -23,67 +23,66 @@
 
 package fi.vm.kapa.identification.shibboleth.extauthn.util;
 
-import org.apache.commons.lang.StringUtils;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.security.Signature;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Base64;
 
 
 public class CertificateUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(CertificateUtil.class);
 
-    private static final String X509_PEM_HEADER = "-----BEGIN CERTIFICATE-----";
-    private static final String X509_PEM_FOOTER = "-----END CERTIFICATE-----";
-
+    /**
+     * @return the certificate, or null if it is missing or cannot be decoded
+     */
     public static X509Certificate getCertificate(String pemCertificate)
     {
-        X509Certificate newCert = null;
         try {
-            // Add \r after cert header field, Cert API needs this (Legacy method, Apache2-provided cert)
-            pemCertificate = pemCertificate.replaceFirst(X509_PEM_HEADER, X509_PEM_HEADER + "\r");
-
-            // Add X509 header and footer, Cert API needs this (SCS method, SCS-provided certificate)
-            if (!pemCertificate.contains(X509_PEM_HEADER)) {
-                pemCertificate = X509_PEM_HEADER + "\r" + pemCertificate + "\r" + X509_PEM_FOOTER;
-            }
-
-            if (StringUtils.isNotBlank(pemCertificate)) {
-                InputStream in = new ByteArrayInputStream(pemCertificate.getBytes());
-                CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                newCert = (X509Certificate)cf.generateCertificate(in);
-            }
-        } catch (final CertificateException|NullPointerException e) {
+            return CertificateDecoder.decodeCertificate(pemCertificate);
+        } catch (final CertificateException e) {
             logger.warn("Error getting client certificate from request", e);
+            return null;
         }
-        return newCert;
     }
 
-    // data = Base64-encoded original data of which the signature was generated
-    // signature = Base64-encoded signature of SHA-256(data)
-    // cert = certificate to check signature against
-    public static boolean checkSignature(String data, String signature, X509Certificate cert)
-    {
-        boolean result = false;
+    /**
+     * @return subject key identifier as a hex string, or null if the extension is missing or malformed
+     */
+    public static String getSubjectKeyIdentifier(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
         try {
-            logger.debug("checkSignature: data={}, signature={}, cert={}", data, signature, cert.toString());
-            byte[] sigToVerify = Base64.getDecoder().decode(signature);
-            Signature sig = Signature.getInstance("SHA256withRSA");
-            sig.initVerify(cert);
-            sig.update(Base64.getDecoder().decode(data));
-            result = sig.verify(sigToVerify);
+            return Hex.toHexString(SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(extension).getOctets()).getKeyIdentifier());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Malformed subject key identifier in certificate " + cert.getSubjectX500Principal().toString(), e);
+            return null;
         }
-        catch (Exception e)
-        {
-            logger.warn("checkSignature: Got exception "+e.getClass(), e);
+    }
+
+    /**
+     * @return key identifier of the authority key identifier as a hex string, or null if the
+     * extension or its key identifier is missing or malformed
+     */
+    public static String getAuthorityKeyIdentifier(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            byte[] keyIdentifier = AuthorityKeyIdentifier.getInstance(ASN1OctetString.getInstance(extension).getOctets()).getKeyIdentifier();
+            return keyIdentifier == null ? null : Hex.toHexString(keyIdentifier);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Malformed authority key identifier in certificate " + cert.getSubjectX500Principal().toString(), e);
+            return null;
         }
-        return result;
     }
 }
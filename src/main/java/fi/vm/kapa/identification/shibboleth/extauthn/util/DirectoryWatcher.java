@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Watches directory trees and notifies a listener when something in its tree changes. Changes are
+ * detected with a {@link WatchService}, and events arriving within the settle time of each other
+ * are coalesced into a single notification. File systems which do not deliver change events (NFS)
+ * can be polled instead: with a poll interval set, all listeners are also notified whenever no
+ * events have arrived during the interval.
+ */
+public class DirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    // used if the watch service is not available and no poll interval is configured
+    private static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    private final long pollInterval;
+    private final long settleTime;
+
+    private final Map<Path, Runnable> listeners = new LinkedHashMap<>();
+
+    // accessed only by the watcher thread
+    private final Map<WatchKey, Set<Runnable>> watchKeys = new HashMap<>();
+
+    private Thread thread;
+
+    public DirectoryWatcher(long pollInterval, long settleTime) {
+        this.pollInterval = pollInterval;
+        this.settleTime = settleTime;
+    }
+
+    /**
+     * Adds a directory tree to watch. Directories must be added before the watcher is started.
+     */
+    public synchronized void watch(String dirPath, Runnable listener) {
+        if (thread != null) {
+            throw new IllegalStateException("Directory watcher already started");
+        }
+        listeners.put(Paths.get(dirPath), listener);
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "dir-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        WatchService watchService = openWatchService();
+        long interval = pollInterval;
+        if (watchService == null && interval <= 0) {
+            interval = DEFAULT_POLL_INTERVAL;
+        }
+        logger.info("Watching directories " + listeners.keySet().toString()
+                + (watchService != null ? " for change events" : "")
+                + (interval > 0 ? ", polling every " + interval + " ms" : ""));
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Runnable> changed = new LinkedHashSet<>();
+                WatchKey key;
+                if (watchService == null) {
+                    Thread.sleep(interval);
+                    key = null;
+                } else if (interval > 0) {
+                    key = watchService.poll(interval, TimeUnit.MILLISECONDS);
+                } else {
+                    key = watchService.take();
+                }
+                if (key == null) {
+                    changed.addAll(listeners.values());
+                }
+                // wait for the changes to settle, a file is usually written with several events
+                while (key != null) {
+                    changed.addAll(handleEvents(watchService, key));
+                    key = watchService.poll(settleTime, TimeUnit.MILLISECONDS);
+                }
+                for (Runnable listener : changed) {
+                    notifyListener(listener);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.debug("Directory watcher stopped");
+        } finally {
+            close(watchService);
+        }
+    }
+
+    private WatchService openWatchService() {
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Map.Entry<Path, Runnable> entry : listeners.entrySet()) {
+                register(watchService, entry.getKey(), entry.getValue());
+            }
+            return watchService;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Watching directories for changes failed, falling back to polling", e);
+            close(watchService);
+            watchKeys.clear();
+            return null;
+        }
+    }
+
+    private void register(WatchService watchService, Path root, Runnable listener) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchKeys.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(listener);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Set<Runnable> handleEvents(WatchService watchService, WatchKey key) {
+        Set<Runnable> keyListeners = watchKeys.get(key);
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == ENTRY_CREATE && keyListeners != null) {
+                Path child = dir.resolve((Path) event.context());
+                if (Files.isDirectory(child)) {
+                    for (Runnable listener : keyListeners) {
+                        try {
+                            register(watchService, child, listener);
+                        } catch (IOException e) {
+                            logger.warn("Watching new directory " + child.toString() + " failed", e);
+                        }
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchKeys.remove(key);
+        }
+        return keyListeners != null ? keyListeners : new LinkedHashSet<>();
+    }
+
+    private static void notifyListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Exception e) {
+            logger.error("Reloading changed directory failed", e);
+        }
+    }
+
+    private static void close(WatchService watchService) {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Closing watch service failed", e);
+            }
+        }
+    }
+}
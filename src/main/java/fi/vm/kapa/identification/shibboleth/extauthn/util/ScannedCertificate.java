@@ -0,0 +1,245 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+
+/**
+ * Serial number, issuer and validity read straight from the DER encoding of a certificate,
+ * without building certificate objects. Used to reject malformed, expired and unknown
+ * certificates before the certificate is parsed and its signature verified. Only the outer
+ * structure of the certificate is checked, a certificate passing the scan may still fail to parse.
+ */
+public final class ScannedCertificate {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_BIT_STRING = 0x03;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_VERSION = 0xa0;
+
+    // serial numbers are at most 20 octets (RFC 5280), some CAs use one more
+    private static final int MAX_SERIAL_LENGTH = 21;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private final byte[] der;
+    private final int serialOffset;
+    private final int serialLength;
+    private final int issuerOffset;
+    private final int issuerLength;
+    // Long.MIN_VALUE and Long.MAX_VALUE if the time is not in the RFC 5280 format
+    private final long notBefore;
+    private final long notAfter;
+
+    private ScannedCertificate(byte[] der, int serialOffset, int serialLength, int issuerOffset, int issuerLength, long notBefore, long notAfter) {
+        this.der = der;
+        this.serialOffset = serialOffset;
+        this.serialLength = serialLength;
+        this.issuerOffset = issuerOffset;
+        this.issuerLength = issuerLength;
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+    }
+
+    /**
+     * @throws CertificateException if the encoding is not a DER certificate
+     */
+    public static ScannedCertificate scan(byte[] der) throws CertificateException {
+        Reader certificate = new Reader(der, 0, der.length);
+        Reader content = certificate.readConstructed(TAG_SEQUENCE);
+        certificate.requireEnd();
+
+        Reader tbsCertificate = content.readConstructed(TAG_SEQUENCE);
+        content.skip(TAG_SEQUENCE);
+        content.skip(TAG_BIT_STRING);
+        content.requireEnd();
+
+        if (tbsCertificate.peekTag() == TAG_VERSION) {
+            tbsCertificate.skip(TAG_VERSION);
+        }
+        int serialLength = tbsCertificate.readHeader(TAG_INTEGER);
+        int serialOffset = tbsCertificate.position;
+        if (serialLength < 1 || serialLength > MAX_SERIAL_LENGTH) {
+            throw new CertificateException("Invalid serial number length " + serialLength);
+        }
+        tbsCertificate.position += serialLength;
+        tbsCertificate.skip(TAG_SEQUENCE);
+
+        int issuerOffset = tbsCertificate.position;
+        tbsCertificate.skip(TAG_SEQUENCE);
+        int issuerLength = tbsCertificate.position - issuerOffset;
+
+        Reader validity = tbsCertificate.readConstructed(TAG_SEQUENCE);
+        long notBefore = validity.readTime(Long.MIN_VALUE);
+        long notAfter = validity.readTime(Long.MAX_VALUE);
+        validity.requireEnd();
+
+        return new ScannedCertificate(der, serialOffset, serialLength, issuerOffset, issuerLength, notBefore, notAfter);
+    }
+
+    /**
+     * Encoded issuer name, comparable with {@link javax.security.auth.x500.X500Principal#getEncoded()}.
+     */
+    public ByteBuffer getIssuer() {
+        return ByteBuffer.wrap(der, issuerOffset, issuerLength).slice();
+    }
+
+    public byte[] getIssuerEncoded() {
+        return Arrays.copyOfRange(der, issuerOffset, issuerOffset + issuerLength);
+    }
+
+    public BigInteger getSerialNumber() {
+        return new BigInteger(Arrays.copyOfRange(der, serialOffset, serialOffset + serialLength));
+    }
+
+    public boolean isValidAt(long time) {
+        return time >= notBefore && time <= notAfter;
+    }
+
+    /**
+     * Bounds checked reader of DER elements with definite lengths.
+     */
+    private static final class Reader {
+
+        private final byte[] der;
+        private int position;
+        private final int end;
+
+        private Reader(byte[] der, int position, int end) {
+            this.der = der;
+            this.position = position;
+            this.end = end;
+        }
+
+        private int peekTag() throws CertificateException {
+            if (position >= end) {
+                throw new CertificateException("Unexpected end of certificate");
+            }
+            return der[position] & 0xff;
+        }
+
+        /**
+         * Reads the tag and length of an element and returns its length, leaving the position at
+         * the start of the content.
+         */
+        private int readHeader(int tag) throws CertificateException {
+            if (peekTag() != tag) {
+                throw new CertificateException("Unexpected tag " + Integer.toHexString(der[position] & 0xff) + " in certificate");
+            }
+            position++;
+            if (position >= end) {
+                throw new CertificateException("Unexpected end of certificate");
+            }
+            int length = der[position++] & 0xff;
+            if (length >= 0x80) {
+                int lengthBytes = length & 0x7f;
+                // indefinite lengths are not DER, and certificates don't need more than 3 length bytes
+                if (lengthBytes == 0 || lengthBytes > 3 || position + lengthBytes > end) {
+                    throw new CertificateException("Invalid length in certificate");
+                }
+                length = 0;
+                for (int i = 0; i < lengthBytes; i++) {
+                    length = (length << 8) | (der[position++] & 0xff);
+                }
+            }
+            if (length > end - position) {
+                throw new CertificateException("Length exceeds certificate");
+            }
+            return length;
+        }
+
+        private Reader readConstructed(int tag) throws CertificateException {
+            int length = readHeader(tag);
+            Reader content = new Reader(der, position, position + length);
+            position += length;
+            return content;
+        }
+
+        private void skip(int tag) throws CertificateException {
+            int length = readHeader(tag);
+            position += length;
+        }
+
+        private void requireEnd() throws CertificateException {
+            if (position != end) {
+                throw new CertificateException("Unexpected data in certificate");
+            }
+        }
+
+        private long readTime(long unknown) throws CertificateException {
+            int tag = peekTag();
+            if (tag != TAG_UTC_TIME && tag != TAG_GENERALIZED_TIME) {
+                throw new CertificateException("Unexpected tag " + Integer.toHexString(tag) + " in certificate validity");
+            }
+            int length = readHeader(tag);
+            int start = position;
+            position += length;
+            int yearDigits = tag == TAG_UTC_TIME ? 2 : 4;
+            // RFC 5280 times are YYMMDDHHMMSSZ or YYYYMMDDHHMMSSZ, other forms are left to the parser
+            if (length != yearDigits + 11 || der[start + length - 1] != 'Z') {
+                return unknown;
+            }
+            int year = digits(start, yearDigits);
+            if (tag == TAG_UTC_TIME) {
+                year += year >= 50 ? 1900 : 2000;
+            }
+            int i = start + yearDigits;
+            int month = digits(i, 2);
+            int day = digits(i + 2, 2);
+            int hour = digits(i + 4, 2);
+            int minute = digits(i + 6, 2);
+            int second = digits(i + 8, 2);
+            if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+                throw new CertificateException("Invalid time in certificate validity");
+            }
+            return daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60L + second) * 1000L;
+        }
+
+        private int digits(int offset, int count) throws CertificateException {
+            int value = 0;
+            for (int i = offset; i < offset + count; i++) {
+                int digit = der[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new CertificateException("Invalid time in certificate validity");
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        // days since 1970-01-01 in the proleptic Gregorian calendar
+        private static long daysFromCivil(int year, int month, int day) {
+            year -= month <= 2 ? 1 : 0;
+            int era = (year >= 0 ? year : year - 399) / 400;
+            int yearOfEra = year - era * 400;
+            int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097L + dayOfEra - 719468;
+        }
+    }
+}
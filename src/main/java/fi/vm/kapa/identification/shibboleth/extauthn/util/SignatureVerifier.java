@@ -0,0 +1,205 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.spec.PSSParameterSpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Verifies certificate and SCS signatures with Signature engines kept per thread and algorithm,
+ * so that the provider lookup is not repeated on every login. Public keys of issuer certificates
+ * are translated to the preferred provider once and kept as long as the issuer certificate is
+ * in use. RSA, RSA-PSS and ECDSA signatures are supported.
+ */
+public class SignatureVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureVerifier.class);
+
+    private static final String RSASSA_PSS_OID = "1.2.840.113549.1.1.10";
+    private static final String RSASSA_PSS = "RSASSA-PSS";
+
+    // null if the default provider of each algorithm is used
+    private final Provider provider;
+
+    private final ThreadLocal<Map<String, Signature>> engines = ThreadLocal.withInitial(HashMap::new);
+
+    // issuer certificates are compared by identity and dropped with the CA/iCA certificates they belong to
+    private final Cache<X509Certificate, PublicKey> issuerKeys = CacheBuilder.newBuilder().weakKeys().build();
+
+    public SignatureVerifier() {
+        this(null);
+    }
+
+    /**
+     * @param providerName preferred provider, for example BC or SunRsaSign, blank for the default
+     *                     providers. Algorithms the provider does not support use the default providers.
+     */
+    public SignatureVerifier(String providerName) {
+        this.provider = findProvider(providerName);
+        logger.info("Verifying signatures with " + (provider == null ? "default providers" : "provider " + provider.getName()));
+    }
+
+    private static Provider findProvider(String providerName) {
+        if (StringUtils.isBlank(providerName)) {
+            return null;
+        }
+        Provider provider = Security.getProvider(providerName);
+        if (provider == null && BouncyCastleProvider.PROVIDER_NAME.equals(providerName)) {
+            provider = new BouncyCastleProvider();
+        }
+        if (provider == null) {
+            logger.warn("Signature provider " + providerName + " not found, using default providers");
+        }
+        return provider;
+    }
+
+    /**
+     * @return true if the certificate is signed with the key of the issuer certificate
+     */
+    public boolean verifyCertificate(X509Certificate certificate, X509Certificate issuerCertificate) {
+        try {
+            PublicKey issuerKey = getIssuerKey(issuerCertificate);
+            Signature signature;
+            if (RSASSA_PSS_OID.equals(certificate.getSigAlgOID())) {
+                signature = getEngine(RSASSA_PSS);
+                // parameters are set first, some providers apply them only when the key is set
+                signature.setParameter(getPssParameters(certificate));
+                signature.initVerify(issuerKey);
+            } else {
+                signature = getEngine(certificate.getSigAlgName());
+                signature.initVerify(issuerKey);
+            }
+            signature.update(certificate.getTBSCertificate());
+            return signature.verify(certificate.getSignature());
+        } catch (NoSuchAlgorithmException e) {
+            logger.debug("Signature algorithm " + certificate.getSigAlgName() + " not supported by preferred provider", e);
+            return verifyWithDefaultProvider(certificate, issuerCertificate);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            logger.debug("Certificate " + certificate.getSubjectX500Principal().toString() + " is not signed by " + issuerCertificate.getSubjectX500Principal().toString(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @param data Base64-encoded original data of which the signature was generated
+     * @param signature Base64-encoded signature of SHA-256(data)
+     * @param cert certificate to check signature against
+     */
+    public boolean checkSignature(String data, String signature, X509Certificate cert) {
+        try {
+            logger.debug("checkSignature: data={}, signature={}, cert={}", data, signature, cert);
+            byte[] sigToVerify = Base64.getDecoder().decode(signature);
+            Signature sig = getEngine("EC".equals(cert.getPublicKey().getAlgorithm()) ? "SHA256withECDSA" : "SHA256withRSA");
+            sig.initVerify(cert.getPublicKey());
+            sig.update(Base64.getDecoder().decode(data));
+            return sig.verify(sigToVerify);
+        } catch (Exception e) {
+            logger.warn("checkSignature: Got exception " + e.getClass(), e);
+            return false;
+        }
+    }
+
+    private Signature getEngine(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, Signature> threadEngines = engines.get();
+        Signature signature = threadEngines.get(algorithm);
+        if (signature == null) {
+            signature = newEngine(algorithm);
+            threadEngines.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    private Signature newEngine(String algorithm) throws NoSuchAlgorithmException {
+        if (provider != null) {
+            try {
+                return Signature.getInstance(algorithm, provider);
+            } catch (NoSuchAlgorithmException e) {
+                logger.info("Signature algorithm " + algorithm + " not supported by " + provider.getName() + ", using default providers");
+            }
+        }
+        return Signature.getInstance(algorithm);
+    }
+
+    private PublicKey getIssuerKey(X509Certificate issuerCertificate) throws GeneralSecurityException {
+        try {
+            return issuerKeys.get(issuerCertificate, () -> translateKey(issuerCertificate.getPublicKey()));
+        } catch (ExecutionException e) {
+            throw new GeneralSecurityException("Preparing issuer key failed", e.getCause());
+        }
+    }
+
+    private PublicKey translateKey(PublicKey key) {
+        if (provider == null) {
+            return key;
+        }
+        try {
+            return (PublicKey) KeyFactory.getInstance(key.getAlgorithm(), provider).translateKey(key);
+        } catch (GeneralSecurityException e) {
+            logger.debug("Key algorithm " + key.getAlgorithm() + " not supported by " + provider.getName(), e);
+            return key;
+        }
+    }
+
+    private static PSSParameterSpec getPssParameters(X509Certificate certificate) throws GeneralSecurityException {
+        byte[] encodedParameters = certificate.getSigAlgParams();
+        if (encodedParameters == null) {
+            throw new GeneralSecurityException("RSASSA-PSS parameters missing");
+        }
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance(RSASSA_PSS);
+            parameters.init(encodedParameters);
+            return parameters.getParameterSpec(PSSParameterSpec.class);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Invalid RSASSA-PSS parameters", e);
+        }
+    }
+
+    private static boolean verifyWithDefaultProvider(X509Certificate certificate, X509Certificate issuerCertificate) {
+        try {
+            certificate.verify(issuerCertificate.getPublicKey());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
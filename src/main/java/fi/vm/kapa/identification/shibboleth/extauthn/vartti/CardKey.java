@@ -0,0 +1,65 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Organization card of a Vartti lookup: subject serial number, issuer CN and certificate serial.
+ */
+final class CardKey {
+
+    private final String serial;
+    private final String issuerCN;
+    private final String certSerial;
+
+    CardKey(String serial, String issuerCN, String certSerial) {
+        this.serial = serial;
+        this.issuerCN = issuerCN;
+        this.certSerial = certSerial;
+    }
+
+    byte[] getEncoded() {
+        // separated with a character which can't appear in the fields
+        return (serial + '\0' + issuerCN + '\0' + certSerial).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CardKey)) {
+            return false;
+        }
+        CardKey other = (CardKey) o;
+        return Objects.equals(serial, other.serial) && Objects.equals(issuerCN, other.issuerCN)
+                && Objects.equals(certSerial, other.certSerial);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(serial, issuerCN, certSerial);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of the hetus resolved by Vartti for organization cards. The hetus are kept
+ * encrypted with AES-GCM under a key generated at startup, which is never stored, and the card
+ * is bound to its entry as additional authenticated data.
+ */
+public class HetuCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HetuCache.class);
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final Cache<CardKey, byte[]> cache;
+
+    private final SecretKey key;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(HetuCache::newCipher);
+
+    /**
+     * @param size maximum number of cached hetus
+     * @param expirationTime time in milliseconds a hetu is cached
+     */
+    public HetuCache(long size, long expirationTime) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expirationTime, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256);
+            this.key = keyGenerator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES not available", e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " not available", e);
+        }
+    }
+
+    /**
+     * @return the cached hetu of the card, null if it is not cached
+     */
+    public String get(String serial, String issuerCN, String certSerial) {
+        return get(new CardKey(serial, issuerCN, certSerial));
+    }
+
+    String get(CardKey cardKey) {
+        byte[] encrypted = cache.getIfPresent(cardKey);
+        if (encrypted == null) {
+            return null;
+        }
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, encrypted, 0, IV_LENGTH));
+            cipher.updateAAD(cardKey.getEncoded());
+            return new String(cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            logger.error("Decrypting cached hetu failed, entry removed", e);
+            cache.invalidate(cardKey);
+            return null;
+        }
+    }
+
+    public void put(String serial, String issuerCN, String certSerial, String hetu) {
+        put(new CardKey(serial, issuerCN, certSerial), hetu);
+    }
+
+    void put(CardKey cardKey, String hetu) {
+        if (hetu == null) {
+            return;
+        }
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(cardKey.getEncoded());
+            byte[] plain = hetu.getBytes(StandardCharsets.UTF_8);
+            byte[] encrypted = Arrays.copyOf(iv, IV_LENGTH + cipher.getOutputSize(plain.length));
+            cipher.doFinal(plain, 0, plain.length, encrypted, IV_LENGTH);
+            cache.put(cardKey, encrypted);
+        } catch (GeneralSecurityException e) {
+            logger.error("Encrypting hetu failed, hetu not cached", e);
+        }
+    }
+
+    public void invalidate(String serial, String issuerCN, String certSerial) {
+        cache.invalidate(new CardKey(serial, issuerCN, certSerial));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+
+/**
+ * Circuit breaker of the Vartti requests. The breaker opens after the given number of
+ * consecutive failures and rejects all requests for the open time. After that a single probe
+ * request is let through; the breaker closes if it succeeds and opens again if it fails.
+ */
+public class VarttiCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final Logger logger = LoggerFactory.getLogger(VarttiCircuitBreaker.class);
+
+    // 0 if the breaker is disabled
+    private final int failureThreshold;
+    private final long openTime;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInProgress;
+
+    private long rejectedCount;
+    private long openedCount;
+
+    public VarttiCircuitBreaker(int failureThreshold, long openTime) {
+        this(failureThreshold, openTime, Clock.systemUTC());
+    }
+
+    VarttiCircuitBreaker(int failureThreshold, long openTime, Clock clock) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns true if a request may be sent. Every permitted request must be followed by
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.millis() - openedAt >= openTime) {
+            logger.info("Vartti circuit breaker half-open, probing Vartti");
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED || (state == State.HALF_OPEN && !probeInProgress)) {
+            probeInProgress = state == State.HALF_OPEN;
+            return true;
+        }
+        rejectedCount++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Vartti circuit breaker closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInProgress = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInProgress = false;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            if (state != State.OPEN) {
+                logger.warn("Vartti circuit breaker opened after " + consecutiveFailures + " consecutive failures");
+                openedCount++;
+            }
+            state = State.OPEN;
+            openedAt = clock.millis();
+        }
+    }
+
+    /**
+     * Closes the breaker, for example after Vartti is known to be back.
+     */
+    public synchronized void reset() {
+        onSuccess();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Number of requests rejected while the breaker was open.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Number of times the breaker has opened.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+}
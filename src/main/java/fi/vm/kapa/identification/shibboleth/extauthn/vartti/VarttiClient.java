@@ -28,51 +28,236 @@ import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ContextResolver;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.VarttiServiceException;
 import fi.vm.kapa.identification.vartticlient.model.VarttiResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client of the Vartti person service. A single Jersey client with a pool of keep-alive
+ * connections is shared by all requests, and connections which have been idle longer than
+ * the idle timeout are closed in the background. Requests are guarded by a circuit breaker,
+ * so that requests fail fast while Vartti is not responding. Resolved hetus are optionally
+ * cached for a short time, so that repeated logins with the same card skip Vartti. Concurrent
+ * lookups of the same card share a single Vartti request.
+ */
 @Component
+@ManagedResource(objectName = "fi.vm.kapa.identification:type=VarttiClient", description = "Vartti client")
 public class VarttiClient {
 
+    static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    static final long DEFAULT_CONNECTION_TTL = 60000;
+
+    static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    static final long DEFAULT_POOL_TIMEOUT = 5000;
+
+    static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+
+    static final int DEFAULT_READ_TIMEOUT = 5000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     private final String varttiClientEndpoint;
 
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final Client client;
+
+    private final ScheduledExecutorService idleConnectionEvictor;
+
+    private final VarttiCircuitBreaker circuitBreaker;
+
+    // null if hetus are not cached
+    private final HetuCache hetuCache;
+
+    // Vartti requests in progress, joined by concurrent lookups of the same card
+    private final ConcurrentHashMap<CardKey, CompletableFuture<String>> inFlightRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedRequestCount = new AtomicLong();
+
+    // time in milliseconds a lookup waits for a concurrent request of the same card, as long as the request may take
+    private final long inFlightRequestTimeout;
+
     private static final Logger logger = LoggerFactory.getLogger(VarttiClient.class);
 
     public VarttiClient(String varttiClientEndpoint) {
+        this(varttiClientEndpoint, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECTION_TTL, DEFAULT_IDLE_TIMEOUT,
+                DEFAULT_POOL_TIMEOUT, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, new VarttiCircuitBreaker(0, 0), null);
+    }
+
+    /**
+     * @param maxConnections maximum number of pooled connections
+     * @param maxConnectionsPerRoute maximum number of pooled connections to the Vartti host
+     * @param connectionTtl time in milliseconds a connection is kept alive at most, 0 for no limit
+     * @param idleTimeout time in milliseconds after which an idle connection is closed, 0 to keep idle connections
+     * @param poolTimeout time in milliseconds to wait for a free connection when the pool is exhausted
+     * @param connectTimeout connect timeout in milliseconds, 0 for no timeout
+     * @param readTimeout read timeout in milliseconds, 0 for no timeout
+     * @param hetuCache cache of resolved hetus, null to disable caching
+     */
+    public VarttiClient(String varttiClientEndpoint, int maxConnections, int maxConnectionsPerRoute,
+                        long connectionTtl, long idleTimeout, long poolTimeout,
+                        int connectTimeout, int readTimeout, VarttiCircuitBreaker circuitBreaker, HetuCache hetuCache) {
         this.varttiClientEndpoint = varttiClientEndpoint;
+        this.circuitBreaker = circuitBreaker;
+        this.hetuCache = hetuCache;
+        this.inFlightRequestTimeout = (poolTimeout > 0 ? poolTimeout : DEFAULT_POOL_TIMEOUT)
+                + (connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT)
+                + (readTimeout > 0 ? readTimeout : DEFAULT_READ_TIMEOUT);
+        this.connectionManager = new PoolingHttpClientConnectionManager(connectionTtl > 0 ? connectionTtl : -1, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ApacheClientProperties.REQUEST_CONFIG, RequestConfig.custom()
+                        .setConnectionRequestTimeout((int) poolTimeout)
+                        .build())
+                .property(ClientProperties.CONNECT_TIMEOUT, connectTimeout)
+                .property(ClientProperties.READ_TIMEOUT, readTimeout)
+                .register(JacksonFeature.class)
+                .register(new ObjectMapperResolver());
+        this.client = ClientBuilder.newClient(clientConfig);
+
+        if (idleTimeout > 0) {
+            this.idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("vartti-idle-evictor-%d")
+                    .build());
+            long interval = Math.max(idleTimeout / 2, 1000);
+            idleConnectionEvictor.scheduleWithFixedDelay(() -> evictIdleConnections(idleTimeout), interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.idleConnectionEvictor = null;
+        }
     }
 
     public String getHetu(String serial, String issuerCN, String certSerial) throws VarttiServiceException {
 
-        Response response = getVarttiHttpResponse(serial, issuerCN, certSerial);
+        CardKey cardKey = new CardKey(serial, issuerCN, certSerial);
+        if (hetuCache != null) {
+            String hetu = hetuCache.get(cardKey);
+            if (hetu != null) {
+                return hetu;
+            }
+        }
 
-        int status = response.getStatus();
-        if ( status == HttpStatus.OK.value()) {
-            VarttiResponse varttiResponse = getValidVarttiResponse(response);
-            return varttiResponse.getVarttiPerson().getHetu();
-        } else {
-            logger.warn("Vartti connection failed with status code " + status);
-            throw new VarttiServiceException("Vartti connection failed with status code " + status);
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> inFlightRequest = inFlightRequests.putIfAbsent(cardKey, request);
+        if (inFlightRequest != null) {
+            coalescedRequestCount.incrementAndGet();
+            return awaitHetu(inFlightRequest);
+        }
+        try {
+            String hetu = requestHetu(serial, issuerCN, certSerial);
+            if (hetuCache != null) {
+                hetuCache.put(cardKey, hetu);
+            }
+            request.complete(hetu);
+            return hetu;
+        } catch (Throwable e) {
+            // complete on errors as well, the joined lookups would otherwise wait for nothing
+            request.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(cardKey, request);
+        }
+    }
+
+    private String awaitHetu(CompletableFuture<String> inFlightRequest) throws VarttiServiceException {
+        try {
+            return inFlightRequest.get(inFlightRequestTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof VarttiServiceException) {
+                throw new VarttiServiceException(e.getCause().getMessage(), e.getCause());
+            }
+            throw new VarttiServiceException("Vartti request failed.", e.getCause());
+        } catch (TimeoutException e) {
+            logger.warn("Timed out waiting for concurrent Vartti request");
+            throw new VarttiServiceException("Timed out waiting for Vartti request.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VarttiServiceException("Interrupted while waiting for Vartti request.", e);
+        }
+    }
+
+    private String requestHetu(String serial, String issuerCN, String certSerial) throws VarttiServiceException {
+
+        if (!circuitBreaker.tryAcquire()) {
+            logger.warn("Vartti circuit breaker is open, request rejected");
+            throw new VarttiServiceException("Vartti circuit breaker is open, request rejected.");
+        }
+        Response response = null;
+        try {
+            response = getVarttiHttpResponse(serial, issuerCN, certSerial);
+        } finally {
+            // errors of Vartti itself open the breaker, a rejected person or card does not
+            if (response != null && response.getStatus() < HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+                circuitBreaker.onSuccess();
+            } else {
+                circuitBreaker.onFailure();
+            }
+        }
+        try {
+            int status = response.getStatus();
+            if ( status == HttpStatus.OK.value()) {
+                VarttiResponse varttiResponse = getValidVarttiResponse(response);
+                return varttiResponse.getVarttiPerson().getHetu();
+            } else {
+                logger.warn("Vartti connection failed with status code " + status);
+                throw new VarttiServiceException("Vartti connection failed with status code " + status);
+            }
+        } finally {
+            response.close();
         }
     }
 
     Response getVarttiHttpResponse(String serial, String issuerCN, String certSerial) throws VarttiServiceException {
         try {
-            WebTarget webTarget = getClient()
+            WebTarget webTarget = client
                     .target(varttiClientEndpoint)
                     .path(serial)
                     .path(certSerial)
                     .queryParam("issuerCN", issuerCN);
 
             Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
-            return invocationBuilder.get();
+            Response response = invocationBuilder.get();
+            try {
+                // reading the whole entity releases the connection to the pool for reuse,
+                // closing a response with unread content would close the connection
+                response.bufferEntity();
+            } catch (Exception e) {
+                response.close();
+                throw e;
+            }
+            return response;
         } catch (Exception e) {
             logger.error("Vartti client connection not established. Service request failed.", e);
             throw new VarttiServiceException("Vartti client connection not established. Service request failed.");
@@ -99,11 +284,86 @@ public class VarttiClient {
         }
     }
 
-    private Client getClient() {
-        ClientConfig clientConfig = new ClientConfig();
-        Client client = ClientBuilder.newClient(clientConfig);
-        client.register(JacksonFeature.class);
-        return client;
+    private void evictIdleConnections(long idleTimeout) {
+        try {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.error("Closing idle Vartti connections failed", e);
+        }
+    }
+
+    /**
+     * Number of pooled connections which are idle and can be reused.
+     */
+    int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    @ManagedAttribute(description = "State of the Vartti circuit breaker: CLOSED, OPEN or HALF_OPEN")
+    public String getCircuitBreakerState() {
+        return circuitBreaker.getState().name();
+    }
+
+    @ManagedAttribute(description = "Number of Vartti requests rejected by the open circuit breaker")
+    public long getRejectedRequestCount() {
+        return circuitBreaker.getRejectedCount();
+    }
+
+    @ManagedAttribute(description = "Number of times the Vartti circuit breaker has opened")
+    public long getCircuitBreakerOpenedCount() {
+        return circuitBreaker.getOpenedCount();
+    }
+
+    @ManagedOperation(description = "Closes the Vartti circuit breaker")
+    public void resetCircuitBreaker() {
+        circuitBreaker.reset();
+    }
+
+    /**
+     * Removes the cached hetu of the card, for example after the card has been re-assigned.
+     */
+    public void invalidateHetu(String serial, String issuerCN, String certSerial) {
+        if (hetuCache != null) {
+            hetuCache.invalidate(serial, issuerCN, certSerial);
+        }
+    }
+
+    @ManagedOperation(description = "Removes all cached hetus")
+    public void invalidateHetuCache() {
+        if (hetuCache != null) {
+            hetuCache.invalidateAll();
+        }
+    }
+
+    @ManagedAttribute(description = "Number of cached hetus")
+    public long getHetuCacheSize() {
+        return hetuCache == null ? 0 : hetuCache.size();
+    }
+
+    @ManagedAttribute(description = "Number of hetus found in the cache")
+    public long getHetuCacheHitCount() {
+        return hetuCache == null ? 0 : hetuCache.getStats().hitCount();
+    }
+
+    @ManagedAttribute(description = "Number of lookups which joined a Vartti request already in progress")
+    public long getCoalescedRequestCount() {
+        return coalescedRequestCount.get();
+    }
+
+    public void close() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdownNow();
+        }
+        client.close();
+        connectionManager.shutdown();
+    }
+
+    private static class ObjectMapperResolver implements ContextResolver<ObjectMapper> {
+        @Override
+        public ObjectMapper getContext(Class<?> type) {
+            return objectMapper;
+        }
     }
 
 }
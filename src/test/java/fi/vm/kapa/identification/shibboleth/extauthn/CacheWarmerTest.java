@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.LoadingCache;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlCacheLoader;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntry;
+import fi.vm.kapa.identification.shibboleth.extauthn.util.SignatureVerifier;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CacheWarmerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void warmUpPreloadsCrlOfEachIntermediateCA() throws Exception {
+        File caDir = tempFolder.newFolder("ca");
+        File icaDir = tempFolder.newFolder("ica");
+        Files.copy(Paths.get("src/test/resources/certs/test-CA.crt"), caDir.toPath().resolve("test-CA.crt"));
+        Files.copy(Paths.get("src/test/resources/certs/test-iCA.crt"), icaDir.toPath().resolve("test-iCA.crt"));
+
+        CrlCacheLoader crlCacheLoader = spy(new CrlCacheLoader("src/test/resources/crls", "1"));
+        LoadingCache<X509Certificate, CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .build(crlCacheLoader);
+        CertificateChecker certificateChecker = new CertificateChecker(icaDir.getPath(), caDir.getPath(), new CrlChecker(crlLoadingCache));
+
+        CacheWarmer cacheWarmer = new CacheWarmer(certificateChecker, 10);
+        Assert.assertFalse(cacheWarmer.isReady());
+        cacheWarmer.warmUp();
+
+        Assert.assertTrue(cacheWarmer.isReady());
+        Assert.assertEquals(1, crlLoadingCache.size());
+        verify(crlCacheLoader, times(1)).load(any());
+    }
+
+    @Test
+    public void warmUpVerifiesIntermediateCASignatures() throws Exception {
+        File caDir = tempFolder.newFolder("ca");
+        File icaDir = tempFolder.newFolder("ica");
+        Files.copy(Paths.get("src/test/resources/certs/test-CA.crt"), caDir.toPath().resolve("test-CA.crt"));
+        Files.copy(Paths.get("src/test/resources/certs/test-iCA.crt"), icaDir.toPath().resolve("test-iCA.crt"));
+
+        LoadingCache<X509Certificate, CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .build(new CrlCacheLoader("src/test/resources/crls", "1"));
+        SignatureVerifier signatureVerifier = spy(new SignatureVerifier());
+        CertificateChecker certificateChecker = new CertificateChecker(icaDir.getPath(), caDir.getPath(),
+                new CrlChecker(crlLoadingCache), 1000, 60000, signatureVerifier);
+        X509Certificate iCACert = certificateChecker.getIntermediateCertificates().iterator().next();
+
+        new CacheWarmer(certificateChecker, 10).warmUp();
+
+        // once when the certificates are loaded, then on each warm-up round
+        verify(signatureVerifier, atLeast(12)).verifyCertificate(any(), any());
+        verify(signatureVerifier, atLeast(11)).verifyCertificate(eq(iCACert), any());
+    }
+}
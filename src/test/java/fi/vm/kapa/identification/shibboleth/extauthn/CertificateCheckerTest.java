@@ -25,6 +25,8 @@ package fi.vm.kapa.identification.shibboleth.extauthn;
 import com.google.common.cache.LoadingCache;
 import fi.vm.kapa.identification.shibboleth.extauthn.authn.ApacheAuthnHandler;
 import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlChecker;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntries;
+import fi.vm.kapa.identification.shibboleth.extauthn.cache.CrlEntry;
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.CertificateStatusException;
 import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
 import org.junit.Assert;
@@ -32,8 +34,8 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import javax.security.auth.x500.X500Principal;
 import javax.servlet.http.HttpServletRequest;
 import java.io.File;
 import java.io.FileInputStream;
@@ -41,7 +43,6 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.cert.CertificateFactory;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 
 import static org.mockito.Matchers.any;
@@ -69,6 +70,7 @@ public class CertificateCheckerTest {
         this.assertFailMessage = "No exception was thrown.";
         this.certificateChecker = new CertificateChecker(icaPath, caPath, mock(CrlChecker.class));
         this.apacheAuthnHandler = new ApacheAuthnHandler("","");
+        ReflectionTestUtils.setField(apacheAuthnHandler, "certificateChecker", certificateChecker);
     }
 
     @Test
@@ -97,9 +99,15 @@ public class CertificateCheckerTest {
 
         CertificateChecker certChecker = new CertificateChecker(this.icaPath, this.caPath, crlChecker);
 
-        X509Certificate validCertificate = certChecker.checkCertificateStatus(certificate);
+        CertificateValidationResult validationResult = certChecker.checkCertificateStatus(certificate);
 
-        Assert.assertNotNull(validCertificate);
+        Assert.assertSame(certificate, validationResult.getCertificate());
+        Assert.assertNotNull(validationResult.getAuditLoggerContext());
+        Assert.assertFalse(validationResult.getAuditLoggerContext().isRevoked());
+        Assert.assertEquals("4", validationResult.getAuditLoggerContext().getSerialNumber());
+        Assert.assertEquals("A2", validationResult.getAuditLoggerContext().getCRLNumber());
+        Assert.assertEquals("ica.test.fi", validationResult.getAuditLoggerContext().getIssuerCN());
+        Assert.assertEquals(validationResult.getCrlEntry().getFormattedThisUpdate(), validationResult.getAuditLoggerContext().getLastUpdate());
     }
 
     @Test
@@ -118,9 +126,29 @@ public class CertificateCheckerTest {
             Assert.fail(assertFailMessage);
         } catch (CertificateStatusException ste ) {
             Assert.assertEquals(CertificateStatusException.ErrorCode.CERT_REVOKED, ste.getErrorCode());
+            Assert.assertTrue(ste.getAuditLoggerContext().isRevoked());
+            Assert.assertEquals("3", ste.getAuditLoggerContext().getSerialNumber());
         }
     }
 
+    @Test
+    public void testValidationResultIsNotAffectedByLaterChecks() throws Exception {
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs/test-cert.crt"))));
+        X509Certificate revokedCertificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs/test-cert-revoked.crt"))));
+        CertificateChecker certChecker = new CertificateChecker(this.icaPath, this.caPath, provideCrlChecker());
+
+        CertificateValidationResult validationResult = certChecker.checkCertificateStatus(certificate);
+        try {
+            certChecker.checkCertificateStatus(revokedCertificate);
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.CERT_REVOKED, ste.getErrorCode());
+        }
+
+        Assert.assertEquals("4", validationResult.getAuditLoggerContext().getSerialNumber());
+        Assert.assertFalse(validationResult.getAuditLoggerContext().isRevoked());
+    }
+
     @Test
     public void testExpiredCertReturnsExpiredException() throws Exception {
 
@@ -195,6 +223,106 @@ public class CertificateCheckerTest {
         }
     }
 
+    @Test
+    public void testDecodeCertificateRejectsUnknownIssuerBeforeParsing() throws Exception {
+        String validCert = new String(Files.readAllBytes(Paths.get("src/test/resources/certs/test-cert.crt")));
+        File folder = tempFolder.newFolder();
+
+        CertificateChecker certChecker = new CertificateChecker(folder.getCanonicalPath(), caPath, mock(CrlChecker.class));
+
+        Assert.assertNotNull(certificateChecker.decodeCertificate(validCert));
+        try {
+            certChecker.decodeCertificate(validCert);
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.UNKNOWN_ICA, ste.getErrorCode());
+        }
+        try {
+            certChecker.decodeCertificate(validCert.replace('M', '*'));
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.NO_CERT_FOUND, ste.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testReloadCertificatesPicksUpNewICA() throws Exception {
+        File caDir = tempFolder.newFolder("ca");
+        File icaDir = tempFolder.newFolder("ica");
+        Files.copy(Paths.get("src/test/resources/certs/test-CA.crt"), caDir.toPath().resolve("test-CA.crt"));
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs/test-cert.crt"))));
+
+        CertificateChecker certChecker = new CertificateChecker(icaDir.getPath(), caDir.getPath(), mock(CrlChecker.class));
+        try {
+            certChecker.checkCertificateStatus(certificate);
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.UNKNOWN_ICA, ste.getErrorCode());
+        }
+
+        Assert.assertFalse(certChecker.reloadCertificates());
+        Assert.assertEquals(0, certChecker.getIntermediateCertificateCount());
+
+        Files.copy(Paths.get("src/test/resources/certs/test-iCA.crt"), icaDir.toPath().resolve("test-iCA.crt"));
+        Assert.assertTrue(certChecker.reloadCertificates());
+        Assert.assertEquals(1, certChecker.getVerifiedIntermediateCertificateCount());
+
+        Assert.assertNotNull(certChecker.checkCertificateStatus(certificate));
+    }
+
+    @Test
+    public void testDeepChainIssuerSelectedByAuthorityKeyIdentifier() throws Exception {
+        // certs-deep: cert -> ica2 -> ica1 -> root, with an older ica2 certificate of the same subject but another key
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs-deep/test-cert-deep.crt"))));
+        CertificateChecker certChecker = new CertificateChecker("src/test/resources/certs-deep/ica", "src/test/resources/certs-deep/ca", mock(CrlChecker.class));
+
+        CertificateValidationResult validationResult = certChecker.checkCertificateStatus(certificate);
+
+        Assert.assertEquals(CertificateUtil.getAuthorityKeyIdentifier(certificate),
+                CertificateUtil.getSubjectKeyIdentifier(validationResult.getIssuerCertificate()));
+    }
+
+    @Test
+    public void testDeepChainWithMissingIntermediateLevelReturnsUnknownCAException() throws Exception {
+        File icaDir = tempFolder.newFolder("ica");
+        Files.copy(Paths.get("src/test/resources/certs-deep/ica/test-ica2-new.crt"), icaDir.toPath().resolve("test-ica2-new.crt"));
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs-deep/test-cert-deep.crt"))));
+
+        CertificateChecker certChecker = new CertificateChecker(icaDir.getPath(), "src/test/resources/certs-deep/ca", mock(CrlChecker.class));
+        try {
+            certChecker.checkCertificateStatus(certificate);
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.UNKNOWN_CA, ste.getErrorCode());
+        }
+
+        Files.copy(Paths.get("src/test/resources/certs-deep/ica/test-ica1.crt"), icaDir.toPath().resolve("test-ica1.crt"));
+        certChecker.reloadCertificates();
+
+        Assert.assertNotNull(certChecker.checkCertificateStatus(certificate));
+    }
+
+    @Test
+    public void testVerifiedIssuerCacheStillChecksRevocation() throws Exception {
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs/test-cert.crt"))));
+        CrlEntry crlEntry = CrlEntries.read("src/test/resources/crls/test-crl.crl");
+        CrlEntry newerCrlEntry = CrlEntries.read("src/test/resources/crls-newer/test-crl-newer.crl");
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = mock(LoadingCache.class);
+        when(crlLoadingCache.get(any())).thenReturn(crlEntry, newerCrlEntry);
+        CertificateChecker certChecker = new CertificateChecker(this.icaPath, this.caPath, new CrlChecker(crlLoadingCache));
+
+        certChecker.checkCertificateStatus(certificate);
+        try {
+            certChecker.checkCertificateStatus(certificate);
+            Assert.fail(assertFailMessage);
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.CERT_REVOKED, ste.getErrorCode());
+        }
+
+        Assert.assertEquals(1, certChecker.getVerifiedIssuerCacheStats().missCount());
+        Assert.assertEquals(1, certChecker.getVerifiedIssuerCacheStats().hitCount());
+    }
+
     private HttpServletRequest getValidRequestMock(String cert) {
         HttpServletRequest request = mock(HttpServletRequest.class);
         when(request.getHeader("SSL_CLIENT_CERT")).thenReturn(cert);
@@ -204,14 +332,8 @@ public class CertificateCheckerTest {
 
     private CrlChecker provideCrlChecker() throws Exception {
 
-        ClassLoader classLoader = getClass().getClassLoader();
-        File crlFile = new File(classLoader.getResource("crls/test-crl.crl").getFile());
-        InputStream crlIn = new FileInputStream(crlFile);
-        CertificateFactory crl_cf = CertificateFactory.getInstance("X509");
-        X509CRL crl = (X509CRL)crl_cf.generateCRL(crlIn);
-
-        LoadingCache<X500Principal,X509CRL> crlLoadingCache = mock(LoadingCache.class);
-        when(crlLoadingCache.get(any())).thenReturn(crl);
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = mock(LoadingCache.class);
+        when(crlLoadingCache.get(any())).thenReturn(CrlEntries.read("src/test/resources/crls/test-crl.crl"));
 
         return new CrlChecker(crlLoadingCache);
     }
@@ -0,0 +1,58 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.util.CertificateUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+
+public class ParsedCertificateTest {
+
+    @Test
+    public void parsedCertificateContainsDecodedFields() throws Exception {
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/headertest/testinen.header"))));
+
+        ParsedCertificate parsedCertificate = new ParsedCertificate(certificate);
+
+        Assert.assertSame(certificate, parsedCertificate.getCertificate());
+        Assert.assertEquals("KapadevCA", parsedCertificate.getIssuerCN());
+        Assert.assertEquals("8B5C7E0832B31B36", parsedCertificate.getSerialNumberHex());
+        Assert.assertEquals(certificate.getSerialNumber().toString(), parsedCertificate.getSerialNumber());
+        Assert.assertNull(parsedCertificate.getSubjectSerialNumber());
+        Assert.assertNull(parsedCertificate.getAuthorityKeyIdentifier());
+    }
+
+    @Test
+    public void parsedCertificateContainsKeyIdentifiers() throws Exception {
+        X509Certificate certificate = CertificateUtil.getCertificate(new String(Files.readAllBytes(Paths.get("src/test/resources/certs-deep/test-cert-deep.crt"))));
+
+        ParsedCertificate parsedCertificate = new ParsedCertificate(certificate);
+
+        Assert.assertEquals("55945c87e1628ca7df3af8ec194e9a52ab06d776", parsedCertificate.getAuthorityKeyIdentifier());
+        Assert.assertEquals("dd6c299cfeed68612bccc566bdabe6a4684250f1", parsedCertificate.getSubjectKeyIdentifier());
+    }
+}
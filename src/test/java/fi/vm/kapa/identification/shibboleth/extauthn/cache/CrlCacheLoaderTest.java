@@ -0,0 +1,97 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+public class CrlCacheLoaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File crlDir;
+
+    private X509Certificate iCAcertificate;
+
+    private CrlCacheLoader crlCacheLoader;
+
+    @Before
+    public void setup() throws Exception {
+        try (InputStream in = new FileInputStream("src/test/resources/certs/test-iCA.crt")) {
+            iCAcertificate = (X509Certificate) CertificateFactory.getInstance("X509").generateCertificate(in);
+        }
+        crlDir = tempFolder.newFolder();
+        Files.copy(Paths.get("src/test/resources/crls/test-crl.crl"), crlDir.toPath().resolve("test-crl.crl"));
+        crlCacheLoader = new CrlCacheLoader(crlDir.getCanonicalPath(), "1", Clock.systemUTC());
+    }
+
+    @Test
+    public void reloadKeepsEntryWhenCrlFileIsUnchanged() throws Exception {
+        CrlEntry crlEntry = crlCacheLoader.load(iCAcertificate);
+        Assert.assertSame(crlEntry, crlCacheLoader.reload(iCAcertificate, crlEntry).get());
+    }
+
+    @Test
+    public void reloadReturnsNewerCrl() throws Exception {
+        CrlEntry crlEntry = crlCacheLoader.load(iCAcertificate);
+        Files.copy(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"), crlDir.toPath().resolve("test-crl-newer.crl"));
+
+        CrlEntry reloadedEntry = crlCacheLoader.reload(iCAcertificate, crlEntry).get();
+
+        Assert.assertTrue(reloadedEntry.isSignatureValid());
+        Assert.assertEquals(BigInteger.valueOf(163), reloadedEntry.getCrlNumber());
+    }
+
+    @Test
+    public void cacheKeepsCurrentEntryWhenRefreshFails() throws Exception {
+        LoadingCache<X509Certificate, CrlEntry> cache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
+                .build(CacheLoader.asyncReloading(crlCacheLoader, MoreExecutors.directExecutor()));
+        CrlEntry crlEntry = cache.get(iCAcertificate);
+        Files.delete(crlDir.toPath().resolve("test-crl.crl"));
+
+        cache.refresh(iCAcertificate);
+
+        Assert.assertSame(crlEntry, cache.get(iCAcertificate));
+    }
+}
@@ -29,7 +29,6 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
-import javax.security.auth.x500.X500Principal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,11 +37,16 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.time.Clock;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class CrlCheckerTest {
@@ -75,12 +79,12 @@ public class CrlCheckerTest {
     @Test
     public void crlCacheContainsCRLAfterFirstGet() throws Exception {
 
-        X509CRL expectedValue = mock(X509CRL.class);
+        CrlEntry expectedValue = CrlEntries.read("src/test/resources/crls/test-crl.crl");
 
         CrlCacheLoader crlCacheLoader = mock(CrlCacheLoader.class);
         when(crlCacheLoader.load(any())).thenReturn(expectedValue);
 
-        LoadingCache<X500Principal,X509CRL> crlLoadingCache = CacheBuilder.newBuilder()
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(100, TimeUnit.MILLISECONDS)
                 .build(crlCacheLoader);
@@ -88,7 +92,49 @@ public class CrlCheckerTest {
 
         crlChecker.verifyAndValidate(iCAcertificate, certificate);
 
-        Assert.assertEquals(expectedValue, crlLoadingCache.get(certificate.getIssuerX500Principal()));
+        Assert.assertEquals(expectedValue, crlLoadingCache.get(iCAcertificate));
+    }
+
+    @Test
+    public void crlCheckerDoesNotVerifyCachedCrlSignature() throws Exception {
+
+        CrlEntry crlEntry = CrlEntries.read("src/test/resources/crls/test-crl.crl");
+
+        CrlCacheLoader crlCacheLoader = mock(CrlCacheLoader.class);
+        when(crlCacheLoader.load(any())).thenReturn(crlEntry);
+
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
+                .build(crlCacheLoader);
+        CrlChecker crlChecker = new CrlChecker(crlLoadingCache);
+
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+
+        verify(crlCacheLoader, times(1)).load(any());
+    }
+
+    @Test
+    public void crlCheckerReturnsCrlSignatureFailedWhenCrlNotSignedByIssuer() throws Exception {
+
+        // iCA certificate with a wrong public key, the CRL signature does not match
+        X509Certificate wrongKeyCertificate = mock(X509Certificate.class);
+        when(wrongKeyCertificate.getSubjectX500Principal()).thenReturn(iCAcertificate.getSubjectX500Principal());
+        when(wrongKeyCertificate.getPublicKey()).thenReturn(certificate.getPublicKey());
+
+        LoadingCache<X509Certificate,CrlEntry> loadingCache =  CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
+                .build(new CrlCacheLoader("src/test/resources/crls", "1"));
+        CrlChecker crlChecker = new CrlChecker(loadingCache);
+
+        try {
+            crlChecker.verifyAndValidate(wrongKeyCertificate, certificate);
+            Assert.fail("No exception was thrown.");
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.CRL_SIGNATURE_FAILED, ste.getErrorCode());
+        }
     }
 
     @Test
@@ -127,12 +173,130 @@ public class CrlCheckerTest {
         }
     }
 
+    @Test
+    public void crlCheckerDoesNotReloadMissingCrlWithinMissingCrlCacheExpiration() throws Exception {
+
+        CrlCacheLoader crlCacheLoader = mock(CrlCacheLoader.class);
+        when(crlCacheLoader.load(any())).thenReturn(null);
+
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
+                .build(crlCacheLoader);
+        CrlChecker crlChecker = new CrlChecker(crlLoadingCache, 1000, 10000);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                crlChecker.verifyAndValidate(iCAcertificate, certificate);
+                Assert.fail("No exception was thrown.");
+            } catch (CertificateStatusException ste ) {
+                Assert.assertEquals(CertificateStatusException.ErrorCode.CRL_MISSING, ste.getErrorCode());
+            }
+        }
+
+        verify(crlCacheLoader, times(1)).load(any());
+        Assert.assertEquals(1, crlChecker.getMissingCrlCacheStats().hitCount());
+        Assert.assertEquals(1, crlChecker.getMissingCrlCacheHitCount());
+        Assert.assertEquals(1, crlChecker.getMissingCrlCacheSize());
+    }
+
+    @Test
+    public void crlCheckerReloadsMissingCrlWhenCrlsChange() throws Exception {
+
+        CrlEntry crlEntry = CrlEntries.read("src/test/resources/crls/test-crl.crl");
+        CrlCacheLoader crlCacheLoader = mock(CrlCacheLoader.class);
+        when(crlCacheLoader.load(any())).thenReturn(null, crlEntry);
+
+        LoadingCache<X509Certificate,CrlEntry> crlLoadingCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
+                .build(crlCacheLoader);
+        CrlChecker crlChecker = new CrlChecker(crlLoadingCache, 1000, 10000);
+
+        try {
+            crlChecker.verifyAndValidate(iCAcertificate, certificate);
+            Assert.fail("No exception was thrown.");
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.CRL_MISSING, ste.getErrorCode());
+        }
+
+        crlChecker.refreshCrls(Collections.singleton(iCAcertificate.getSubjectX500Principal()));
+
+        Assert.assertSame(crlEntry, crlChecker.verifyAndValidate(iCAcertificate, certificate));
+    }
+
+    @Test
+    public void crlCheckerReloadsCrlWhenEntryExpires() throws Exception {
+        Clock clock = mock(Clock.class);
+        long nextUpdate = crl.getNextUpdate().getTime();
+        when(clock.millis()).thenReturn(nextUpdate - 3600000);
+
+        CrlCacheLoader crlCacheLoader = provideExpiringCrlCacheLoader(clock, 0);
+        CrlChecker crlChecker = new CrlChecker(CacheBuilder.newBuilder().maximumSize(1000).build(crlCacheLoader), 1000, 10000, clock);
+
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        verify(crlCacheLoader, times(1)).load(any());
+        verify(crlCacheLoader, never()).reload(any(), any());
+
+        // within the safety margin before nextUpdate, the unchanged CRL is kept for the minimum time
+        when(clock.millis()).thenReturn(nextUpdate - 60000);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        verify(crlCacheLoader, times(1)).load(any());
+        verify(crlCacheLoader, times(1)).reload(any(), any());
+    }
+
+    @Test
+    public void crlCheckerUsesCrlWithinGracePeriodAfterNextUpdate() throws Exception {
+        Clock clock = mock(Clock.class);
+        long nextUpdate = crl.getNextUpdate().getTime();
+        when(clock.millis()).thenReturn(nextUpdate - 3600000);
+
+        CrlCacheLoader crlCacheLoader = provideExpiringCrlCacheLoader(clock, 3600000);
+        CrlChecker crlChecker = new CrlChecker(CacheBuilder.newBuilder().maximumSize(1000).build(crlCacheLoader), 1000, 10000, clock);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+
+        when(clock.millis()).thenReturn(nextUpdate + 600000);
+        CrlEntry crlEntry = crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        crlChecker.verifyAndValidate(iCAcertificate, certificate);
+        Assert.assertTrue(crlEntry.isInGracePeriod(clock.millis()));
+        // refresh is retried only after the minimum cache time
+        verify(crlCacheLoader, times(1)).reload(any(), any());
+
+        when(clock.millis()).thenReturn(nextUpdate + 7200000);
+        try {
+            crlChecker.verifyAndValidate(iCAcertificate, certificate);
+            Assert.fail("No exception was thrown.");
+        } catch (CertificateStatusException ste ) {
+            Assert.assertEquals(CertificateStatusException.ErrorCode.CRL_MISSING, ste.getErrorCode());
+        }
+    }
+
+    @Test
+    public void outdatedCrlIsNotInGracePeriodWithoutUpdateTimeValidation() throws Exception {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(crl.getNextUpdate().getTime() + 600000);
+
+        CrlCacheLoader crlCacheLoader = new CrlCacheLoader(new CrlDirectoryIndex("src/test/resources/crls"), "0", clock, null, 0);
+        CrlChecker crlChecker = new CrlChecker(CacheBuilder.newBuilder().maximumSize(1000).build(crlCacheLoader), 1000, 10000, clock);
+        CrlEntry crlEntry = crlChecker.getVerifiedCrl(iCAcertificate, crlChecker.currentTimeMillis());
+
+        Assert.assertTrue(crlEntry.isPastNextUpdate(clock.millis()));
+        Assert.assertFalse(crlEntry.isInGracePeriod(clock.millis()));
+    }
+
+    private CrlCacheLoader provideExpiringCrlCacheLoader(Clock clock, long gracePeriod) {
+        CrlExpiryPolicy expiryPolicy = new CrlExpiryPolicy(10000, 300000, 60000, Collections.emptyMap());
+        return spy(new CrlCacheLoader(new CrlDirectoryIndex("src/test/resources/crls"), "1", clock, expiryPolicy, gracePeriod));
+    }
+
     private void testUptodateCRL(long add) throws CertificateStatusException {
         Clock clock = mock(Clock.class);
         long crlMillis = crl.getNextUpdate().getTime();
         when(clock.millis()).thenReturn(crlMillis+add);
 
-        LoadingCache<X500Principal,X509CRL> loadingCache =  CacheBuilder.newBuilder()
+        LoadingCache<X509Certificate,CrlEntry> loadingCache =  CacheBuilder.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(10000, TimeUnit.MILLISECONDS)
                 .build(new CrlCacheLoader("src/test/resources/crls", "1", clock));
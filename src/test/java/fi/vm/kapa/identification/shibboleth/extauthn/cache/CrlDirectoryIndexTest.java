@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+public class CrlDirectoryIndexTest {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=ica.test.fi");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File crlDir;
+
+    private CrlDirectoryIndex crlIndex;
+
+    @Before
+    public void setup() throws Exception {
+        crlDir = tempFolder.newFolder();
+        Files.copy(Paths.get("src/test/resources/crls/test-crl.crl"), crlDir.toPath().resolve("test-crl.crl"));
+        crlIndex = new CrlDirectoryIndex(crlDir.getCanonicalPath());
+    }
+
+    @Test
+    public void indexReturnsCrlOfIssuer() throws Exception {
+        crlIndex.refresh();
+        CrlFileInfo crlFile = crlIndex.getCrlFile(ISSUER, new Date(), 0);
+        Assert.assertEquals(BigInteger.valueOf(162), crlFile.getCrlNumber());
+    }
+
+    @Test
+    public void indexReturnsNullForUnknownIssuer() throws Exception {
+        crlIndex.refresh();
+        Assert.assertNull(crlIndex.getCrlFile(new X500Principal("CN=unknown.test.fi"), new Date(), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void indexPicksUpNewerCrlOnRefresh() throws Exception {
+        crlIndex.refresh();
+        Files.copy(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"), crlDir.toPath().resolve("a-test-crl-newer.crl"));
+        crlIndex.refresh();
+        CrlFileInfo crlFile = crlIndex.getCrlFile(ISSUER, new Date(), 0);
+        Assert.assertEquals(BigInteger.valueOf(163), crlFile.getCrlNumber());
+    }
+
+    @Test
+    public void indexNotifiesChangedIssuers() throws Exception {
+        List<Set<X500Principal>> changes = new ArrayList<>();
+        crlIndex.setChangeListener(changes::add);
+        crlIndex.refresh();
+        crlIndex.refresh();
+        Files.copy(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"), crlDir.toPath().resolve("a-test-crl-newer.crl"));
+        crlIndex.refresh();
+        Assert.assertEquals(2, changes.size());
+        Assert.assertEquals(Collections.singleton(ISSUER), changes.get(1));
+    }
+
+    @Test
+    public void indexDropsRemovedCrlOnRefresh() throws Exception {
+        crlIndex.refresh();
+        Files.delete(crlDir.toPath().resolve("test-crl.crl"));
+        crlIndex.refresh();
+        Assert.assertNull(crlIndex.getCrlFile(ISSUER, new Date(), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void indexReturnsOutdatedCrlOnlyWithinGracePeriod() throws Exception {
+        crlIndex.refresh();
+        Date afterNextUpdate = new Date(crlIndex.getCrlFile(ISSUER, new Date(0), 0).getNextUpdate().getTime() + 1000);
+        Assert.assertNull(crlIndex.getCrlFile(ISSUER, afterNextUpdate, 0));
+        Assert.assertNull(crlIndex.getCrlFile(ISSUER, afterNextUpdate, 999));
+        Assert.assertNotNull(crlIndex.getCrlFile(ISSUER, afterNextUpdate, 1000));
+        Assert.assertNotNull(crlIndex.getCrlFile(ISSUER, afterNextUpdate, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void unwatchedIndexRefreshesOnLookup() throws Exception {
+        Assert.assertNotNull(crlIndex.findCrlFile(ISSUER, new Date(0), 0));
+        Files.copy(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"), crlDir.toPath().resolve("a-test-crl-newer.crl"));
+        Assert.assertEquals(BigInteger.valueOf(163), crlIndex.findCrlFile(ISSUER, new Date(0), 0).getCrlNumber());
+    }
+
+    @Test
+    public void watchedIndexRefreshesOnLookupOnlyForUnknownIssuer() throws Exception {
+        crlIndex.setWatched(true);
+        Assert.assertEquals(BigInteger.valueOf(162), crlIndex.findCrlFile(ISSUER, new Date(0), 0).getCrlNumber());
+        Files.copy(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"), crlDir.toPath().resolve("a-test-crl-newer.crl"));
+        Assert.assertEquals(BigInteger.valueOf(162), crlIndex.findCrlFile(ISSUER, new Date(0), 0).getCrlNumber());
+        crlIndex.refresh();
+        Assert.assertEquals(BigInteger.valueOf(163), crlIndex.findCrlFile(ISSUER, new Date(0), 0).getCrlNumber());
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+public class CrlExpiryPolicyTest {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=ica.test.fi,O=Test");
+
+    private static final long HOUR = 3600000;
+
+    private static final long NOW = 1000 * HOUR;
+
+    private final CrlExpiryPolicy expiryPolicy = new CrlExpiryPolicy(HOUR, 5 * 60000, 60000, Collections.emptyMap());
+
+    @Test
+    public void crlExpiresMarginBeforeNextUpdate() {
+        Date nextUpdate = new Date(NOW + 24 * HOUR);
+        Assert.assertEquals(nextUpdate.getTime() - 5 * 60000,
+                expiryPolicy.getExpiryTime(ISSUER, new Date(NOW), nextUpdate, NOW));
+    }
+
+    @Test
+    public void marginIsAtMostHalfOfCrlValidity() {
+        Date thisUpdate = new Date(NOW);
+        Date nextUpdate = new Date(NOW + 4 * 60000);
+        Assert.assertEquals(NOW + 2 * 60000, expiryPolicy.getExpiryTime(ISSUER, thisUpdate, nextUpdate, NOW));
+    }
+
+    @Test
+    public void crlWithinMarginIsKeptForMinimumTime() {
+        Date nextUpdate = new Date(NOW + 60000);
+        Assert.assertEquals(NOW + 60000,
+                expiryPolicy.getExpiryTime(ISSUER, new Date(NOW - 24 * HOUR), nextUpdate, NOW));
+        Assert.assertEquals(NOW + 60000,
+                expiryPolicy.getExpiryTime(ISSUER, new Date(NOW - 24 * HOUR), new Date(NOW - HOUR), NOW));
+    }
+
+    @Test
+    public void crlWithoutNextUpdateUsesDefaultTime() {
+        Assert.assertEquals(NOW + HOUR, expiryPolicy.getExpiryTime(ISSUER, new Date(NOW), null, NOW));
+    }
+
+    @Test
+    public void issuerOverrideIsUsedByCommonName() {
+        Map<String, Long> overrides = CrlExpiryPolicy.parseIssuerTtls("ica.test.fi:120000; other.test.fi : 5000");
+        Assert.assertEquals(Long.valueOf(5000), overrides.get("other.test.fi"));
+
+        CrlExpiryPolicy overridePolicy = new CrlExpiryPolicy(HOUR, 5 * 60000, 60000, overrides);
+        Assert.assertEquals(NOW + 120000,
+                overridePolicy.getExpiryTime(ISSUER, new Date(NOW), new Date(NOW + 24 * HOUR), NOW));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIssuerOverrideIsRejected() {
+        CrlExpiryPolicy.parseIssuerTtls("ica.test.fi");
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+
+public class MappedCrlTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private X509Certificate iCAcertificate;
+
+    private X509Certificate CAcertificate;
+
+    @Before
+    public void setup() throws Exception {
+        iCAcertificate = readCertificate("src/test/resources/certs/test-iCA.crt");
+        CAcertificate = readCertificate("src/test/resources/certs/test-CA.crt");
+    }
+
+    @Test
+    public void pemCrlHeaderMatchesParsedCrl() throws Exception {
+        Path pemFile = Paths.get("src/test/resources/crls/test-crl.crl");
+        assertHeaderMatches(readCrl(pemFile), MappedCrl.open(pemFile));
+    }
+
+    @Test
+    public void derCrlHeaderMatchesParsedCrl() throws Exception {
+        X509CRL x509Crl = readCrl(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl"));
+        Path derFile = tempFolder.newFile("test-crl-newer.der").toPath();
+        Files.write(derFile, x509Crl.getEncoded());
+
+        assertHeaderMatches(x509Crl, MappedCrl.open(derFile));
+    }
+
+    @Test
+    public void crlSignatureIsVerifiedAgainstIssuerOnly() throws Exception {
+        MappedCrl crl = MappedCrl.open(Paths.get("src/test/resources/crls/test-crl.crl"));
+        Assert.assertTrue(crl.verify(iCAcertificate.getPublicKey()));
+        Assert.assertFalse(crl.verify(CAcertificate.getPublicKey()));
+    }
+
+    @Test
+    public void revokedSerialsAreReadFromCrl() throws Exception {
+        RevokedSerialIndex revokedSerials = MappedCrl.open(Paths.get("src/test/resources/crls-newer/test-crl-newer.crl")).readRevokedSerials();
+        Assert.assertEquals(2, revokedSerials.size());
+        Assert.assertTrue(revokedSerials.contains(BigInteger.valueOf(3)));
+        Assert.assertTrue(revokedSerials.contains(BigInteger.valueOf(4)));
+        Assert.assertFalse(revokedSerials.contains(BigInteger.valueOf(5)));
+    }
+
+    private void assertHeaderMatches(X509CRL expected, MappedCrl crl) {
+        Assert.assertEquals(expected.getIssuerX500Principal(), crl.getIssuer());
+        Assert.assertEquals(expected.getThisUpdate(), crl.getThisUpdate());
+        Assert.assertEquals(expected.getNextUpdate(), crl.getNextUpdate());
+        Assert.assertEquals(ASN1Integer.getInstance(ASN1OctetString.getInstance(expected.getExtensionValue("2.5.29.20")).getOctets()).getValue(),
+                crl.getCrlNumber());
+    }
+
+    private static X509CRL readCrl(Path path) throws Exception {
+        try (InputStream in = new FileInputStream(path.toFile())) {
+            return (X509CRL) CertificateFactory.getInstance("X509").generateCRL(in);
+        }
+    }
+
+    private static X509Certificate readCertificate(String path) throws Exception {
+        try (InputStream in = new FileInputStream(path)) {
+            return (X509Certificate) CertificateFactory.getInstance("X509").generateCertificate(in);
+        }
+    }
+}
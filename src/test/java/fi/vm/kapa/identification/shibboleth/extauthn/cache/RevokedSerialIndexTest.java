@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+public class RevokedSerialIndexTest {
+
+    @Test
+    public void indexContainsAddedSerialsOfDifferentLengths() {
+        RevokedSerialIndex index = RevokedSerialIndex.builder()
+                .add(BigInteger.valueOf(3))
+                .add(new BigInteger("8B5C7E0832B31B36", 16))
+                .add(BigInteger.valueOf(255))
+                .add(BigInteger.valueOf(-5))
+                .build();
+
+        Assert.assertEquals(4, index.size());
+        Assert.assertTrue(index.contains(BigInteger.valueOf(3)));
+        Assert.assertTrue(index.contains(new BigInteger("8B5C7E0832B31B36", 16)));
+        Assert.assertTrue(index.contains(BigInteger.valueOf(255)));
+        Assert.assertTrue(index.contains(BigInteger.valueOf(-5)));
+        Assert.assertFalse(index.contains(BigInteger.valueOf(4)));
+        Assert.assertFalse(index.contains(BigInteger.valueOf(-3)));
+        Assert.assertFalse(index.contains(new BigInteger("8B5C7E0832B31B3600", 16)));
+    }
+
+    @Test
+    public void emptyIndexContainsNothing() {
+        RevokedSerialIndex index = RevokedSerialIndex.builder().build();
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.contains(BigInteger.ONE));
+    }
+
+    @Test
+    public void indexContainsAllOfManyRandomSerials() {
+        Random random = new Random(1);
+        BigInteger[] serials = new BigInteger[10000];
+        RevokedSerialIndex.Builder builder = RevokedSerialIndex.builder();
+        for (int i = 0; i < serials.length; i++) {
+            serials[i] = new BigInteger(1 + random.nextInt(159), random);
+            builder.add(serials[i]);
+        }
+        RevokedSerialIndex index = builder.build();
+
+        for (BigInteger serial : serials) {
+            Assert.assertTrue(index.contains(serial));
+        }
+        Assert.assertFalse(index.contains(BigInteger.ONE.shiftLeft(160)));
+    }
+}
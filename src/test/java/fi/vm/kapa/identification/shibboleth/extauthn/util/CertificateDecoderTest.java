@@ -0,0 +1,89 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class CertificateDecoderTest {
+
+    private static String read(String path) throws Exception {
+        return new String(Files.readAllBytes(Paths.get(path)));
+    }
+
+    @Test
+    public void decodesApacheHeaderAndScsParameter() throws Exception {
+        X509Certificate apacheCertificate = CertificateDecoder.decodeCertificate(read("src/test/resources/headertest/testinen.header"));
+        X509Certificate scsCertificate = CertificateDecoder.decodeCertificate(read("src/test/resources/headertest/testinen.scs"));
+
+        Assert.assertArrayEquals(Base64.getMimeDecoder().decode(read("src/test/resources/headertest/testinen.scs")), scsCertificate.getEncoded());
+        Assert.assertEquals(apacheCertificate, scsCertificate);
+    }
+
+    @Test
+    public void decodesPemFile() throws Exception {
+        X509Certificate certificate = CertificateDecoder.decodeCertificate(read("src/test/resources/certs/test-cert.crt"));
+
+        Assert.assertEquals("4", certificate.getSerialNumber().toString(16));
+    }
+
+    @Test
+    public void decodesAllPaddingLengths() throws Exception {
+        for (int length = 1; length <= 6; length++) {
+            byte[] data = Arrays.copyOf(new byte[] { 0x30, (byte) 0x82, 0x7f, 0x01, (byte) 0xff, 0x10 }, length);
+            Assert.assertArrayEquals(data, CertificateDecoder.decodeDer(Base64.getEncoder().encodeToString(data)));
+            Assert.assertArrayEquals(data, CertificateDecoder.decodeDer(Base64.getEncoder().withoutPadding().encodeToString(data)));
+        }
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsTooLongInput() throws Exception {
+        char[] data = new char[CertificateDecoder.MAX_PEM_LENGTH + 4];
+        Arrays.fill(data, 'A');
+        CertificateDecoder.decodeDer(new String(data));
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsInvalidBase64() throws Exception {
+        CertificateDecoder.decodeDer("MIID*UTCC");
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsMissingFooter() throws Exception {
+        CertificateDecoder.decodeDer("-----BEGIN CERTIFICATE----- MIIDUTCC");
+    }
+
+    @Test
+    public void getCertificateReturnsNullForInvalidInput() {
+        Assert.assertNull(CertificateUtil.getCertificate(null));
+        Assert.assertNull(CertificateUtil.getCertificate(""));
+        Assert.assertNull(CertificateUtil.getCertificate("-----BEGIN CERTIFICATE----- AAAA -----END CERTIFICATE-----"));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryWatcherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DirectoryWatcher directoryWatcher;
+
+    @After
+    public void tearDown() {
+        if (directoryWatcher != null) {
+            directoryWatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void listenerIsNotifiedOfNewFile() throws Exception {
+        File dir = tempFolder.newFolder();
+        Semaphore changes = new Semaphore(0);
+        directoryWatcher = new DirectoryWatcher(0, 50);
+        directoryWatcher.watch(dir.getPath(), changes::release);
+        directoryWatcher.start();
+        // the watch is registered by the watcher thread, let it settle before writing
+        Thread.sleep(200);
+
+        Files.write(dir.toPath().resolve("test.crl"), new byte[] { 1, 2, 3 });
+
+        Assert.assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void listenerIsNotifiedOfFileInNewSubdirectory() throws Exception {
+        File dir = tempFolder.newFolder();
+        Semaphore changes = new Semaphore(0);
+        directoryWatcher = new DirectoryWatcher(0, 50);
+        directoryWatcher.watch(dir.getPath(), changes::release);
+        directoryWatcher.start();
+        Thread.sleep(200);
+
+        File subDir = new File(dir, "sub");
+        Assert.assertTrue(subDir.mkdir());
+        Assert.assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        changes.drainPermits();
+
+        Files.write(subDir.toPath().resolve("test.crl"), new byte[] { 1, 2, 3 });
+        Assert.assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void listenerIsNotifiedWhenPolling() throws Exception {
+        Semaphore changes = new Semaphore(0);
+        directoryWatcher = new DirectoryWatcher(100, 50);
+        directoryWatcher.watch(tempFolder.newFolder().getPath(), changes::release);
+        directoryWatcher.start();
+
+        Assert.assertTrue(changes.tryAcquire(2, 10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+public class ScannedCertificateTest {
+
+    private static byte[] readDer(String path) throws Exception {
+        return CertificateDecoder.decodeDer(new String(Files.readAllBytes(Paths.get(path))));
+    }
+
+    @Test
+    public void scannedFieldsMatchParsedCertificate() throws Exception {
+        for (String path : new String[] { "src/test/resources/certs/test-cert.crt",
+                "src/test/resources/headertest/testinen.header",
+                "src/test/resources/certs-deep/test-cert-deep.crt" }) {
+            byte[] der = readDer(path);
+            X509Certificate certificate = CertificateDecoder.generateCertificate(der);
+
+            ScannedCertificate scannedCertificate = ScannedCertificate.scan(der);
+
+            Assert.assertEquals(certificate.getSerialNumber(), scannedCertificate.getSerialNumber());
+            Assert.assertEquals(ByteBuffer.wrap(certificate.getIssuerX500Principal().getEncoded()), scannedCertificate.getIssuer());
+            Assert.assertTrue(scannedCertificate.isValidAt(certificate.getNotBefore().getTime()));
+            Assert.assertTrue(scannedCertificate.isValidAt(certificate.getNotAfter().getTime()));
+            Assert.assertFalse(scannedCertificate.isValidAt(certificate.getNotBefore().getTime() - 1));
+            Assert.assertFalse(scannedCertificate.isValidAt(certificate.getNotAfter().getTime() + 1));
+        }
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsTruncatedCertificate() throws Exception {
+        byte[] der = readDer("src/test/resources/certs/test-cert.crt");
+        ScannedCertificate.scan(Arrays.copyOf(der, der.length - 1));
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsTrailingData() throws Exception {
+        byte[] der = readDer("src/test/resources/certs/test-cert.crt");
+        ScannedCertificate.scan(Arrays.copyOf(der, der.length + 1));
+    }
+
+    @Test(expected = CertificateException.class)
+    public void rejectsGarbage() throws Exception {
+        ScannedCertificate.scan(new byte[] { 0x30, (byte) 0x84, 0x7f, 0x7f, 0x7f, 0x7f });
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SignatureVerifierTest {
+
+    private static X509Certificate read(String path) throws Exception {
+        return CertificateDecoder.decodeCertificate(new String(Files.readAllBytes(Paths.get(path))));
+    }
+
+    private static void assertVerifies(SignatureVerifier signatureVerifier, String certificatePath, String issuerPath, String otherIssuerPath) throws Exception {
+        X509Certificate certificate = read(certificatePath);
+        X509Certificate issuer = read(issuerPath);
+        X509Certificate otherIssuer = read(otherIssuerPath);
+
+        // twice to use the pooled engine and the prepared key
+        Assert.assertTrue(signatureVerifier.verifyCertificate(certificate, issuer));
+        Assert.assertTrue(signatureVerifier.verifyCertificate(certificate, issuer));
+        Assert.assertFalse(signatureVerifier.verifyCertificate(certificate, otherIssuer));
+    }
+
+    private static void assertVerifiesAllAlgorithms(SignatureVerifier signatureVerifier) throws Exception {
+        assertVerifies(signatureVerifier, "src/test/resources/certs/test-cert.crt", "src/test/resources/certs/test-iCA.crt", "src/test/resources/certs/test-CA.crt");
+        assertVerifies(signatureVerifier, "src/test/resources/certs-signature/pss-cert.crt", "src/test/resources/certs-signature/pss-ca.crt", "src/test/resources/certs/test-iCA.crt");
+        assertVerifies(signatureVerifier, "src/test/resources/certs-signature/ec-cert.crt", "src/test/resources/certs-signature/ec-ca.crt", "src/test/resources/certs-signature/pss-ca.crt");
+    }
+
+    @Test
+    public void verifiesWithDefaultProviders() throws Exception {
+        assertVerifiesAllAlgorithms(new SignatureVerifier(""));
+    }
+
+    @Test
+    public void verifiesWithBouncyCastle() throws Exception {
+        assertVerifiesAllAlgorithms(new SignatureVerifier("BC"));
+    }
+
+    @Test
+    public void checksScsSignaturesOfRsaAndEcKeys() throws Exception {
+        SignatureVerifier signatureVerifier = new SignatureVerifier("");
+        byte[] data = "scs data".getBytes(StandardCharsets.UTF_8);
+        for (String[] algorithm : new String[][] { { "RSA", "SHA256withRSA" }, { "EC", "SHA256withECDSA" } }) {
+            KeyPair keyPair = KeyPairGenerator.getInstance(algorithm[0]).generateKeyPair();
+            Signature signer = Signature.getInstance(algorithm[1]);
+            signer.initSign(keyPair.getPrivate());
+            signer.update(data);
+            String signature = Base64.getEncoder().encodeToString(signer.sign());
+            X509Certificate certificate = mock(X509Certificate.class);
+            when(certificate.getPublicKey()).thenReturn(keyPair.getPublic());
+
+            Assert.assertTrue(signatureVerifier.checkSignature(Base64.getEncoder().encodeToString(data), signature, certificate));
+            Assert.assertFalse(signatureVerifier.checkSignature(Base64.getEncoder().encodeToString("other data".getBytes(StandardCharsets.UTF_8)), signature, certificate));
+        }
+    }
+
+    @Test
+    public void unknownProviderFallsBackToDefaultProviders() throws Exception {
+        assertVerifiesAllAlgorithms(new SignatureVerifier("NoSuchProvider"));
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HetuCacheTest {
+
+    @Test
+    public void returnsCachedHetuOfSameCardOnly() {
+        HetuCache hetuCache = new HetuCache(100, 60000);
+        hetuCache.put("999198794", "Testi CA", "1234", "010101-123N");
+        assertEquals("010101-123N", hetuCache.get("999198794", "Testi CA", "1234"));
+        assertNull(hetuCache.get("999198794", "Testi CA", "1235"));
+        assertNull(hetuCache.get("999198794", "Toinen CA", "1234"));
+        assertEquals(1, hetuCache.getStats().hitCount());
+    }
+
+    @Test
+    public void invalidateRemovesHetu() {
+        HetuCache hetuCache = new HetuCache(100, 60000);
+        hetuCache.put("999198794", "Testi CA", "1234", "010101-123N");
+        hetuCache.put("999198795", "Testi CA", "1236", "020202-456P");
+        hetuCache.invalidate("999198794", "Testi CA", "1234");
+        assertNull(hetuCache.get("999198794", "Testi CA", "1234"));
+        assertEquals("020202-456P", hetuCache.get("999198795", "Testi CA", "1236"));
+        hetuCache.invalidateAll();
+        assertEquals(0, hetuCache.size());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        HetuCache hetuCache = new HetuCache(10, 60000);
+        for (int i = 0; i < 100; i++) {
+            hetuCache.put("999198794", "Testi CA", Integer.toString(i), "010101-123N");
+        }
+        assertTrue(hetuCache.size() <= 10);
+    }
+}
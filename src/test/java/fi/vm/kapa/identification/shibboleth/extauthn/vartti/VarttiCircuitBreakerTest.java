@@ -0,0 +1,104 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Population Register Centre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
+
+import fi.vm.kapa.identification.shibboleth.extauthn.vartti.VarttiCircuitBreaker.State;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class VarttiCircuitBreakerTest {
+
+    private Clock clock;
+
+    private VarttiCircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(1000L);
+        circuitBreaker = new VarttiCircuitBreaker(3, 10000, clock);
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.onFailure();
+        }
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail(2);
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess();
+        fail(2);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        fail(1);
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(2, circuitBreaker.getRejectedCount());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+    }
+
+    @Test
+    public void halfOpenLetsSingleProbeThroughAndClosesOnSuccess() {
+        fail(3);
+        when(clock.millis()).thenReturn(11000L);
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess();
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void failedProbeOpensBreakerAgain() {
+        fail(3);
+        when(clock.millis()).thenReturn(11000L);
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        when(clock.millis()).thenReturn(20999L);
+        assertFalse(circuitBreaker.tryAcquire());
+        when(clock.millis()).thenReturn(21000L);
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(2, circuitBreaker.getOpenedCount());
+    }
+
+    @Test
+    public void disabledBreakerNeverOpens() {
+        circuitBreaker = new VarttiCircuitBreaker(0, 10000, clock);
+        fail(100);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+    }
+}
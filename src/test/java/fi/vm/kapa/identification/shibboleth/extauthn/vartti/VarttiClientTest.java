@@ -22,12 +22,27 @@
  */
 package fi.vm.kapa.identification.shibboleth.extauthn.vartti;
 
+import com.sun.net.httpserver.HttpServer;
 import fi.vm.kapa.identification.shibboleth.extauthn.exception.VarttiServiceException;
 import fi.vm.kapa.identification.shibboleth.extauthn.vartti.VarttiClient;
 import org.junit.Test;
 
 import javax.ws.rs.core.Response;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class VarttiClientTest {
@@ -38,4 +53,183 @@ public class VarttiClientTest {
         Response responseMock = mock(Response.class);
         varttiClient.getValidVarttiResponse(responseMock);
     }
+
+    @Test
+    public void errorResponsesReturnConnectionToPool() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/vartti/person", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = "{\"success\":false}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(500, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        String endpoint = "http://localhost:" + server.getAddress().getPort() + "/vartti/person";
+        // a single pooled connection, a leaked connection would make the next request time out
+        VarttiClient varttiClient = new VarttiClient(endpoint, 1, 1, 60000, 0, 1000, 1000, 1000, new VarttiCircuitBreaker(0, 0), null);
+        try {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    varttiClient.getHetu("999198794", "Testi CA", "1234");
+                    fail("Expected VarttiServiceException");
+                } catch (VarttiServiceException e) {
+                    assertEquals("Vartti connection failed with status code 500", e.getMessage());
+                }
+            }
+            assertEquals(3, requests.get());
+            assertEquals(1, varttiClient.getAvailableConnections());
+        } finally {
+            varttiClient.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void openCircuitBreakerRejectsRequestsWithoutConnecting() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/vartti/person", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        String endpoint = "http://localhost:" + server.getAddress().getPort() + "/vartti/person";
+        VarttiClient varttiClient = new VarttiClient(endpoint, 1, 1, 60000, 0, 1000, 1000, 1000, new VarttiCircuitBreaker(2, 60000), null);
+        try {
+            for (int i = 0; i < 4; i++) {
+                try {
+                    varttiClient.getHetu("999198794", "Testi CA", "1234");
+                    fail("Expected VarttiServiceException");
+                } catch (VarttiServiceException e) {
+                    // expected
+                }
+            }
+            assertEquals(2, requests.get());
+            assertEquals("OPEN", varttiClient.getCircuitBreakerState());
+            assertEquals(2, varttiClient.getRejectedRequestCount());
+        } finally {
+            varttiClient.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void concurrentLookupsOfSameCardShareOneRequest() throws Exception {
+        int callers = 5;
+        AtomicInteger requests = new AtomicInteger();
+        VarttiClient[] client = new VarttiClient[1];
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/vartti/person", exchange -> {
+            requests.incrementAndGet();
+            // responds only after the other callers have joined this request
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client[0].getCoalescedRequestCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        String endpoint = "http://localhost:" + server.getAddress().getPort() + "/vartti/person";
+        client[0] = new VarttiClient(endpoint, 10, 10, 60000, 0, 1000, 1000, 10000, new VarttiCircuitBreaker(0, 0), null);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> client[0].getHetu("999198794", "Testi CA", "1234")));
+            }
+            for (Future<String> result : results) {
+                try {
+                    result.get();
+                    fail("Expected VarttiServiceException");
+                } catch (ExecutionException e) {
+                    assertEquals(VarttiServiceException.class, e.getCause().getClass());
+                    assertEquals("Vartti connection failed with status code 503", e.getCause().getMessage());
+                }
+            }
+            assertEquals(1, requests.get());
+            assertEquals(callers - 1, client[0].getCoalescedRequestCount());
+        } finally {
+            executor.shutdownNow();
+            client[0].close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void joinedLookupsFailWhenRequestThrowsError() throws Exception {
+        int callers = 3;
+        VarttiClient[] client = new VarttiClient[1];
+        client[0] = new VarttiClient("http://localhost/vartti/person", 1, 1, 60000, 0, 1000, 1000, 1000, new VarttiCircuitBreaker(0, 0), null) {
+            @Override
+            Response getVarttiHttpResponse(String serial, String issuerCN, String certSerial) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (client[0].getCoalescedRequestCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                throw new AssertionError("request failed");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> client[0].getHetu("999198794", "Testi CA", "1234")));
+            }
+            int errors = 0;
+            for (Future<String> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    fail("Expected VarttiServiceException");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof AssertionError) {
+                        errors++;
+                    } else {
+                        assertEquals(VarttiServiceException.class, e.getCause().getClass());
+                    }
+                }
+            }
+            assertEquals(1, errors);
+            assertEquals(callers - 1, client[0].getCoalescedRequestCount());
+        } finally {
+            executor.shutdownNow();
+            client[0].close();
+        }
+    }
+
+    @Test
+    public void joinedLookupTimesOutWhenRequestHangs() throws Exception {
+        CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        VarttiClient varttiClient = new VarttiClient("http://localhost/vartti/person", 1, 1, 60000, 0, 100, 100, 100, new VarttiCircuitBreaker(0, 0), null) {
+            @Override
+            Response getVarttiHttpResponse(String serial, String issuerCN, String certSerial) throws VarttiServiceException {
+                requestStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new VarttiServiceException("Vartti client connection not established. Service request failed.");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> varttiClient.getHetu("999198794", "Testi CA", "1234"));
+            requestStarted.await();
+            try {
+                varttiClient.getHetu("999198794", "Testi CA", "1234");
+                fail("Expected VarttiServiceException");
+            } catch (VarttiServiceException e) {
+                assertEquals("Timed out waiting for Vartti request.", e.getMessage());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            varttiClient.close();
+        }
+    }
 }